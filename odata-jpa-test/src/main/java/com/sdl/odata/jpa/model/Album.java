@@ -0,0 +1,83 @@
+/**
+ * Copyright (c) 2016 All Rights Reserved by the SDL Group.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sdl.odata.jpa.model;
+
+import javax.persistence.CollectionTable;
+import javax.persistence.Column;
+import javax.persistence.ElementCollection;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.JoinTable;
+import javax.persistence.OneToMany;
+import java.util.List;
+
+/**
+ * Album entity, the photos of an album are kept in a join table and its tags in a collection table.
+ */
+@Entity(name = "ALBUMS")
+public class Album {
+    private String id;
+    private String name;
+    private List<PhotoItem> photos;
+    private List<String> tags;
+
+    public Album(String id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    public Album() {
+    }
+
+    @Id
+    @Column
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    @Column
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    @OneToMany
+    @JoinTable(name = "ALBUM_PHOTOS")
+    public List<PhotoItem> getPhotos() {
+        return photos;
+    }
+
+    public void setPhotos(List<PhotoItem> photos) {
+        this.photos = photos;
+    }
+
+    @ElementCollection
+    @CollectionTable(name = "ALBUM_TAGS")
+    public List<String> getTags() {
+        return tags;
+    }
+
+    public void setTags(List<String> tags) {
+        this.tags = tags;
+    }
+}
@@ -0,0 +1,178 @@
+/**
+ * Copyright (c) 2016 All Rights Reserved by the SDL Group.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sdl.odata.jpa;
+
+import com.sdl.odata.api.ODataException;
+import com.sdl.odata.api.edm.model.EntityDataModel;
+import com.sdl.odata.api.edm.model.StructuredType;
+import com.sdl.odata.datasource.jpa.builders.MapperBuilder;
+import com.sdl.odata.datasource.jpa.mapper.AnnotationJPAEntityMapper;
+import com.sdl.odata.datasource.jpa.mapper.JPAGeneratedMapper;
+import com.sdl.odata.datasource.jpa.mapper.JPAResultConverter;
+import com.sdl.odata.edm.factory.annotations.AnnotationEntityDataModelFactory;
+import com.sdl.odata.jpa.model.Album;
+import com.sdl.odata.jpa.model.PhotoItem;
+import com.sdl.odata.jpa.model.User;
+import org.hibernate.Hibernate;
+import org.hibernate.collection.spi.PersistentCollection;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static com.sdl.odata.util.edm.EntityDataModelUtil.getPropertyValue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for the conversion between JPA entities and the generated OData entities.
+ */
+public class AnnotationJPAEntityMapperTest {
+
+    private EntityDataModel entityDataModel;
+
+    private AnnotationJPAEntityMapper entityMapper;
+
+    private StructuredType userType;
+
+    private StructuredType photoType;
+
+    @Before
+    public void setUp() throws ODataException {
+        entityDataModel = JPATestModel.getEntityDataModel();
+        entityMapper = new AnnotationJPAEntityMapper();
+        userType = (StructuredType) entityDataModel.getType("Sdl.TestModel.User");
+        photoType = (StructuredType) entityDataModel.getType("Sdl.TestModel.PhotoItem");
+    }
+
+    @Test
+    public void testMappersGenerated() throws ClassNotFoundException {
+        for (StructuredType type : Arrays.asList(userType, photoType)) {
+            Class<?> odataClass = type.getJavaType();
+            assertNotNull(Class.forName(odataClass.getName() + JPAGeneratedMapper.CLASS_SUFFIX, false,
+                    odataClass.getClassLoader()));
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws ODataException {
+        User user = new User("Donald", "Donald Duck", "donald@duck.com", null);
+        user.setAge(80);
+        PhotoItem first = new PhotoItem("p1", "photo1", "http://photos/1");
+        PhotoItem second = new PhotoItem("p2", "photo2", "http://photos/2");
+        first.setOwner(user);
+        second.setOwner(user);
+        user.setPhotos(Arrays.asList(first, second));
+
+        Object odataUser = entityMapper.convertDSEntityToOData(user, userType.getJavaType(), entityDataModel);
+
+        assertEquals("Donald Duck", getPropertyValue(userType.getStructuralProperty("name"), odataUser));
+        assertEquals(80, getPropertyValue(userType.getStructuralProperty("age"), odataUser));
+        List<?> odataPhotos = (List<?>) getPropertyValue(userType.getStructuralProperty("photos"), odataUser);
+        assertEquals(2, odataPhotos.size());
+        assertEquals("http://photos/2", getPropertyValue(photoType.getStructuralProperty("url"), odataPhotos.get(1)));
+        assertSame(odataUser, getPropertyValue(photoType.getStructuralProperty("owner"), odataPhotos.get(0)));
+
+        User jpaUser = (User) entityMapper.convertODataEntityToDS(odataUser, entityDataModel);
+
+        assertEquals("Donald", jpaUser.getUserId());
+        assertEquals("donald@duck.com", jpaUser.getEmail());
+        assertEquals(80, jpaUser.getAge());
+        assertEquals(2, jpaUser.getPhotos().size());
+        assertEquals("photo1", jpaUser.getPhotos().get(0).getName());
+        assertSame(jpaUser, jpaUser.getPhotos().get(1).getOwner());
+    }
+
+    @Test
+    public void testOnlyExpandedPropertiesMapped() throws ODataException {
+        User user = new User("Donald", "Donald Duck", "donald@duck.com", null);
+        PhotoItem photo = new PhotoItem("p1", "photo1", "http://photos/1");
+        photo.setOwner(user);
+        user.setPhotos(Collections.singletonList(photo));
+
+        Object odataPhoto = entityMapper.convertDSEntityToOData(photo, photoType.getJavaType(),
+                Collections.emptyList(), entityDataModel);
+        assertEquals("photo1", getPropertyValue(photoType.getStructuralProperty("name"), odataPhoto));
+        assertNull(getPropertyValue(photoType.getStructuralProperty("owner"), odataPhoto));
+
+        odataPhoto = entityMapper.convertDSEntityToOData(photo, photoType.getJavaType(),
+                Collections.singletonList("owner"), entityDataModel);
+        Object odataUser = getPropertyValue(photoType.getStructuralProperty("owner"), odataPhoto);
+        assertEquals("Donald", getPropertyValue(userType.getStructuralProperty("userId"), odataUser));
+        assertNull(getPropertyValue(userType.getStructuralProperty("photos"), odataUser));
+    }
+
+    @Test
+    public void testSharedEntityConvertedOncePerResult() throws ODataException {
+        User user = new User("Donald", "Donald Duck", "donald@duck.com", null);
+        PhotoItem first = new PhotoItem("p1", "photo1", "http://photos/1");
+        PhotoItem second = new PhotoItem("p2", "photo2", "http://photos/2");
+        first.setOwner(user);
+        second.setOwner(user);
+
+        JPAResultConverter converter = entityMapper.createResultConverter(Collections.singletonList("owner"),
+                entityDataModel);
+        Object firstPhoto = converter.convert(first, photoType.getJavaType());
+        Object secondPhoto = converter.convert(second, photoType.getJavaType());
+
+        assertEquals("p2", getPropertyValue(photoType.getStructuralProperty("id"), secondPhoto));
+        assertSame(getPropertyValue(photoType.getStructuralProperty("owner"), firstPhoto),
+                getPropertyValue(photoType.getStructuralProperty("owner"), secondPhoto));
+    }
+
+    @Test
+    public void testLazyElementCollectionNotLoaded() throws ODataException {
+        Album album = new Album("a1", "album1");
+        album.setTags(Arrays.asList("summer", "beach"));
+        JPATestDatabase.clear();
+        JPATestDatabase.write(entityManager -> entityManager.persist(album));
+
+        AnnotationEntityDataModelFactory factory = new AnnotationEntityDataModelFactory();
+        factory.addClass(TaggedAlbum.class);
+        EntityDataModel taggedModel = factory.buildEntityDataModel();
+
+        Album lazyAlbum = JPATestDatabase.read(entityManager -> entityManager.find(Album.class, "a1"));
+        Album loadedAlbum = JPATestDatabase.read(entityManager -> {
+            Album found = entityManager.find(Album.class, "a1");
+            Hibernate.initialize(found.getTags());
+            return found;
+        });
+
+        // Mapped with the accessors of the mapping plan
+        assertTags(lazyAlbum, loadedAlbum, new AnnotationJPAEntityMapper(), taggedModel);
+
+        // Mapped with a generated mapper
+        new MapperBuilder(Album.class, TaggedAlbum.class).build();
+        assertTags(lazyAlbum, loadedAlbum, new AnnotationJPAEntityMapper(), taggedModel);
+    }
+
+    private static void assertTags(Album lazyAlbum, Album loadedAlbum, AnnotationJPAEntityMapper mapper,
+                                   EntityDataModel taggedModel) throws ODataException {
+        TaggedAlbum odataAlbum = mapper.convertDSEntityToOData(lazyAlbum, TaggedAlbum.class, taggedModel);
+        assertEquals("album1", odataAlbum.getName());
+        assertNull(odataAlbum.getTags());
+
+        odataAlbum = mapper.convertDSEntityToOData(loadedAlbum, TaggedAlbum.class, taggedModel);
+        assertEquals(new HashSet<>(Arrays.asList("summer", "beach")), new HashSet<>(odataAlbum.getTags()));
+        assertFalse(odataAlbum.getTags() instanceof PersistentCollection);
+    }
+}
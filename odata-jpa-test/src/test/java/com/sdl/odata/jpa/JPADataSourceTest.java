@@ -0,0 +1,266 @@
+/**
+ * Copyright (c) 2016 All Rights Reserved by the SDL Group.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sdl.odata.jpa;
+
+import com.sdl.odata.api.ODataException;
+import com.sdl.odata.api.edm.model.EntityDataModel;
+import com.sdl.odata.api.edm.model.EntityType;
+import com.sdl.odata.api.edm.model.NavigationProperty;
+import com.sdl.odata.api.parser.ODataUri;
+import com.sdl.odata.api.processor.datasource.ODataEntityNotFoundException;
+import com.sdl.odata.api.processor.datasource.TransactionalDataSource;
+import com.sdl.odata.api.processor.link.ODataLink;
+import com.sdl.odata.api.processor.query.SelectByKeyOperation;
+import com.sdl.odata.api.processor.query.SelectOperation;
+import com.sdl.odata.datasource.jpa.JPABulkResult;
+import com.sdl.odata.datasource.jpa.JPADataSource;
+import com.sdl.odata.datasource.jpa.JPAEntityManagerTracker;
+import com.sdl.odata.datasource.jpa.mapper.AnnotationJPAEntityMapper;
+import com.sdl.odata.datasource.jpa.query.JPAStatementBuilder;
+import com.sdl.odata.jpa.model.Album;
+import com.sdl.odata.jpa.model.PhotoItem;
+import com.sdl.odata.jpa.model.User;
+import com.sdl.odata.parser.ODataParserImpl;
+import org.hibernate.Session;
+import org.junit.Before;
+import org.junit.Test;
+import scala.collection.immutable.Map;
+
+import javax.persistence.EntityManager;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests for the statements that the data source writes to the database.
+ */
+public class JPADataSourceTest {
+
+    private EntityDataModel entityDataModel;
+
+    private JPADataSource dataSource;
+
+    @Before
+    public void setUp() throws ODataException {
+        entityDataModel = JPATestModel.getEntityDataModel();
+        dataSource = JPATestDatabase.createDataSource();
+
+        JPATestDatabase.clear();
+        User user = new User("Donald", "Donald Duck", "donald@duck.com", null);
+        user.setAge(80);
+        PhotoItem photo = new PhotoItem("p1", "photo1", "http://photos/1");
+        photo.setOwner(user);
+        Album album = new Album("a1", "album1");
+        album.setPhotos(Collections.singletonList(photo));
+        JPATestDatabase.write(entityManager -> {
+            entityManager.persist(user);
+            entityManager.persist(photo);
+            entityManager.persist(new PhotoItem("p2", "photo2", "http://photos/2"));
+            entityManager.persist(album);
+        });
+    }
+
+    @Test
+    public void testUpdateReplacesProperties() throws ODataException {
+        dataSource.update(null, toOData(new User("Donald", null, "donald@example.com", null)), entityDataModel);
+
+        User user = findUser("Donald");
+        assertEquals("donald@example.com", user.getEmail());
+        assertNull(user.getName());
+        assertEquals(0, user.getAge());
+    }
+
+    @Test
+    public void testUpdatePrimitiveToDefault() throws ODataException {
+        dataSource.update(null, toOData(new User("Donald", "Donald Duck", "donald@duck.com", null)), entityDataModel);
+
+        User user = findUser("Donald");
+        assertEquals(0, user.getAge());
+        assertEquals("Donald Duck", user.getName());
+    }
+
+    @Test
+    public void testUpdateMergesAssociations() throws ODataException {
+        PhotoItem photo = new PhotoItem("p2", "photo2 renamed", "http://photos/2");
+        photo.setOwner(new User("Donald", "Donald Duck", "donald@duck.com", null));
+
+        dataSource.update(null, toOData(photo), entityDataModel);
+
+        PhotoItem updated = findPhoto("p2");
+        assertEquals("photo2 renamed", updated.getName());
+        assertEquals("Donald", updated.getOwner().getUserId());
+        assertEquals("Donald Duck", findUser("Donald").getName());
+    }
+
+    @Test(expected = ODataEntityNotFoundException.class)
+    public void testUpdateUnknownKey() throws ODataException {
+        dataSource.update(null, toOData(new User("Nobody", "Nobody", null, null)), entityDataModel);
+    }
+
+    @Test
+    public void testUpdateInChangeset() throws ODataException {
+        TransactionalDataSource transaction = dataSource.startTransaction();
+        transaction.update(null, toOData(new User("Donald", "Donald Duck", "donald@example.com", null)),
+                entityDataModel);
+        transaction.update(null, toOData(new PhotoItem("p2", "photo2 renamed", "http://photos/2")), entityDataModel);
+        transaction.commit();
+
+        assertEquals("donald@example.com", findUser("Donald").getEmail());
+        assertEquals("photo2 renamed", findPhoto("p2").getName());
+    }
+
+    @Test
+    public void testUpdateWhereSetsDefaultValues() throws ODataException {
+        int count = dataSource.updateWhere(new SelectByKeyOperation(new SelectOperation("Users", true),
+                new Map.Map1<>("userId", "Donald")), Collections.singletonMap("age", 0), entityDataModel);
+
+        assertEquals(1, count);
+        assertEquals(0, findUser("Donald").getAge());
+    }
+
+    @Test
+    public void testWriteAfterReadOnlyRead() throws ODataException {
+        JPAEntityManagerTracker entityManagerTracker = new JPAEntityManagerTracker();
+        entityManagerTracker.setEntityManagerFactory(JPATestDatabase.getEntityManagerFactory());
+        EntityManager entityManager = entityManagerTracker.openReadOnly();
+        try {
+            assertEquals("Donald Duck", entityManager.find(User.class, "Donald").getName());
+        } finally {
+            entityManagerTracker.closeReadOnly(entityManager);
+        }
+
+        assertFalse(JPATestDatabase.read(readEntityManager ->
+                readEntityManager.unwrap(Session.class).doReturningWork(Connection::isReadOnly)));
+        dataSource.update(null, toOData(new User("Donald", "Donald Fauntleroy Duck", null, null)), entityDataModel);
+        assertEquals("Donald Fauntleroy Duck", findUser("Donald").getName());
+    }
+
+    @Test
+    public void testDeleteByKey() throws ODataException {
+        JPATestDatabase.write(entityManager -> entityManager.persist(new User("Mickey", "Mickey Mouse", null, null)));
+
+        dataSource.delete(parseUri("Users('Mickey')"), entityDataModel);
+
+        assertNull(findUser("Mickey"));
+        assertNotNull(findUser("Donald"));
+    }
+
+    @Test(expected = ODataEntityNotFoundException.class)
+    public void testDeleteUnknownKey() throws ODataException {
+        dataSource.delete(parseUri("Users('Nobody')"), entityDataModel);
+    }
+
+    @Test
+    public void testDeleteWithJoinTable() throws ODataException {
+        assertNull(JPAStatementBuilder.buildDelete(new Album("a1", null),
+                JPATestDatabase.getEntityManagerFactory().getMetamodel()));
+
+        dataSource.delete(parseUri("Albums('a1')"), entityDataModel);
+
+        assertNull(JPATestDatabase.read(entityManager -> entityManager.find(Album.class, "a1")));
+        assertEquals(0, countAlbumPhotos());
+        assertNotNull(JPATestDatabase.read(entityManager -> entityManager.find(PhotoItem.class, "p1")));
+    }
+
+    @Test
+    public void testLinkByForeignKey() throws ODataException {
+        dataSource.createLink(null, link("User", "Donald", "photos", "PhotoItem", "p2"), entityDataModel);
+        assertEquals("Donald", findPhoto("p2").getOwner().getUserId());
+
+        dataSource.deleteLink(null, link("PhotoItem", "p2", "owner", "User", "Donald"), entityDataModel);
+        assertNull(findPhoto("p2").getOwner());
+        assertEquals("Donald", findPhoto("p1").getOwner().getUserId());
+    }
+
+    @Test
+    public void testLinkInJoinTable() throws ODataException {
+        dataSource.createLink(null, link("Album", "a1", "photos", "PhotoItem", "p2"), entityDataModel);
+        assertEquals(2, countAlbumPhotos());
+
+        dataSource.deleteLink(null, link("Album", "a1", "photos", "PhotoItem", "p1"), entityDataModel);
+        assertEquals(1, countAlbumPhotos());
+    }
+
+    @Test(expected = ODataEntityNotFoundException.class)
+    public void testDeleteUnknownLink() throws ODataException {
+        dataSource.deleteLink(null, link("Album", "a1", "photos", "PhotoItem", "p2"), entityDataModel);
+    }
+
+    @Test
+    public void testBulkCreateReportsFailedChunk() throws ODataException {
+        List<Object> users = new ArrayList<>();
+        for (String userId : Arrays.asList("u1", "u2", "u3", "Donald", "u5")) {
+            users.add(toOData(new User(userId, userId, null, null)));
+        }
+        dataSource.setChunkSize(2);
+        dataSource.setBatchSize(0);
+
+        JPABulkResult result = dataSource.bulkCreate(users.stream(), entityDataModel);
+
+        assertEquals(3, result.getChunks().size());
+        assertEquals(3, result.getCreatedCount());
+        assertEquals(1, result.getFailedChunks().size());
+        JPABulkResult.Chunk failedChunk = result.getFailedChunks().get(0);
+        assertEquals(2, failedChunk.getOffset());
+        assertEquals(2, failedChunk.getSize());
+        assertNotNull(failedChunk.getError());
+
+        assertNotNull(findUser("u1"));
+        assertNotNull(findUser("u2"));
+        assertNull(findUser("u3"));
+        assertEquals("Donald Duck", findUser("Donald").getName());
+        assertNotNull(findUser("u5"));
+    }
+
+    private ODataLink link(String fromTypeName, String fromKey, String propertyName, String toTypeName,
+                           String toKey) {
+        EntityType fromType = (EntityType) entityDataModel.getType("Sdl.TestModel." + fromTypeName);
+        EntityType toType = (EntityType) entityDataModel.getType("Sdl.TestModel." + toTypeName);
+        return new ODataLink(fromType, new Map.Map1<>(fromType.getKey().getPropertyRefs().get(0).getPath(), fromKey),
+                (NavigationProperty) fromType.getStructuralProperty(propertyName), toType,
+                new Map.Map1<>(toType.getKey().getPropertyRefs().get(0).getPath(), toKey));
+    }
+
+    private ODataUri parseUri(String path) throws ODataException {
+        return new ODataParserImpl().parseUri("http://localhost:8080/jpa.svc/" + path, entityDataModel);
+    }
+
+    private static long countAlbumPhotos() {
+        return JPATestDatabase.read(entityManager -> ((Number) entityManager
+                .createNativeQuery("SELECT COUNT(*) FROM ALBUM_PHOTOS").getSingleResult()).longValue());
+    }
+
+    private Object toOData(Object jpaEntity) throws ODataException {
+        Class<?> odataClass = entityDataModel.getType("Sdl.TestModel." + jpaEntity.getClass().getSimpleName())
+                .getJavaType();
+        return new AnnotationJPAEntityMapper().convertDSEntityToOData(jpaEntity, odataClass, entityDataModel);
+    }
+
+    private static PhotoItem findPhoto(String id) {
+        return JPATestDatabase.read(entityManager -> entityManager.find(PhotoItem.class, id));
+    }
+
+    private static User findUser(String userId) {
+        return JPATestDatabase.read(entityManager -> entityManager.find(User.class, userId));
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) 2016 All Rights Reserved by the SDL Group.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sdl.odata.jpa;
+
+import com.sdl.odata.datasource.jpa.JPAEntityManagerTracker;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Tests for the tracking of open entity managers.
+ */
+public class JPAEntityManagerTrackerTest {
+
+    private JPAEntityManagerTracker entityManagerTracker;
+
+    @Before
+    public void setUp() {
+        entityManagerTracker = new JPAEntityManagerTracker();
+        entityManagerTracker.setEntityManagerFactory((EntityManagerFactory) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class[] {EntityManagerFactory.class},
+                (proxy, method, args) -> method.getName().equals("createEntityManager") ? newEntityManager() : null));
+        entityManagerTracker.init();
+    }
+
+    @Test
+    public void testOpenAndIdleCounts() {
+        EntityManager first = entityManagerTracker.open();
+        EntityManager second = entityManagerTracker.open();
+        second.getTransaction().begin();
+
+        assertEquals(2, entityManagerTracker.getOpenCount());
+        assertEquals(1, entityManagerTracker.getIdleCount());
+
+        entityManagerTracker.close(first);
+        assertFalse(first.isOpen());
+        assertEquals(1, entityManagerTracker.getOpenCount());
+        assertEquals(0, entityManagerTracker.getIdleCount());
+
+        entityManagerTracker.close(second);
+        entityManagerTracker.close(second);
+        assertEquals(0, entityManagerTracker.getOpenCount());
+    }
+
+    private static EntityManager newEntityManager() {
+        AtomicBoolean open = new AtomicBoolean(true);
+        AtomicBoolean active = new AtomicBoolean();
+        EntityTransaction transaction = (EntityTransaction) Proxy.newProxyInstance(
+                JPAEntityManagerTrackerTest.class.getClassLoader(), new Class[] {EntityTransaction.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("begin")) {
+                        active.set(true);
+                    }
+                    return method.getName().equals("isActive") ? active.get() : null;
+                });
+
+        return (EntityManager) Proxy.newProxyInstance(JPAEntityManagerTrackerTest.class.getClassLoader(),
+                new Class[] {EntityManager.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "close":
+                            open.set(false);
+                            return null;
+                        case "isOpen":
+                            return open.get();
+                        case "getTransaction":
+                            return transaction;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            return null;
+                    }
+                });
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright (c) 2016 All Rights Reserved by the SDL Group.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sdl.odata.jpa;
+
+import com.sdl.odata.api.ODataBadRequestException;
+import com.sdl.odata.api.ODataException;
+import com.sdl.odata.api.edm.model.EntityDataModel;
+import com.sdl.odata.api.processor.query.Descending$;
+import com.sdl.odata.api.processor.query.LimitOperation;
+import com.sdl.odata.api.processor.query.OrderByOperation;
+import com.sdl.odata.api.processor.query.OrderByProperty;
+import com.sdl.odata.api.processor.query.QueryOperation;
+import com.sdl.odata.api.processor.query.SelectOperation;
+import com.sdl.odata.datasource.jpa.query.JPAQuery;
+import com.sdl.odata.datasource.jpa.query.JPAQueryStrategyBuilder;
+import com.sdl.odata.datasource.jpa.query.JPASkipToken;
+import org.junit.Test;
+import scala.collection.JavaConversions;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for keyset paging of queries.
+ */
+public class JPAKeysetPagingTest {
+
+    @Test
+    public void testSkipTokenRoundTrip() throws ODataException {
+        JPASkipToken token = new JPASkipToken(20, Arrays.asList("Donald", 42L, null));
+        JPASkipToken decoded = JPASkipToken.decode(token.encode());
+
+        assertEquals(20, decoded.getOffset());
+        assertEquals(Arrays.asList("Donald", 42L, null), decoded.getValues());
+    }
+
+    @Test
+    public void testSeekToNextPage() throws ODataException {
+        EntityDataModel entityDataModel = JPATestModel.getEntityDataModel();
+        QueryOperation operation = new LimitOperation(new SelectOperation("Users", false), 10);
+
+        JPAQuery firstPage = new JPAQueryStrategyBuilder(entityDataModel).setKeysetPaging(true).build(operation);
+        assertEquals("SELECT e1 FROM USERS e1 ORDER BY e1.userId ASC", firstPage.getQueryString());
+        assertEquals(Collections.singletonList("userId"), firstPage.getKeysetProperties());
+
+        JPAQuery nextPage = new JPAQueryStrategyBuilder(entityDataModel).setKeysetPaging(true)
+                .setSkipToken(new JPASkipToken(10, Collections.singletonList("Donald"))).build(operation);
+        assertEquals("SELECT e1 FROM USERS e1 WHERE (e1.userId > :e1last1) ORDER BY e1.userId ASC",
+                nextPage.getQueryString());
+        assertEquals("Donald", nextPage.getQueryParams().get("e1last1"));
+        assertEquals(0, nextPage.getSkipCount());
+    }
+
+    @Test
+    public void testSeekOnPrimitiveOrdering() throws ODataException {
+        JPAQuery nextPage = new JPAQueryStrategyBuilder(JPATestModel.getEntityDataModel()).setKeysetPaging(true)
+                .setSkipToken(new JPASkipToken(10, Arrays.asList(80, "Donald"))).build(orderBy("age"));
+        assertEquals("SELECT e1 FROM USERS e1 WHERE (e1.age < :e1last1) OR (e1.age = :e1last1 AND e1.userId > "
+                + ":e1last2) ORDER BY e1.age DESC,e1.userId ASC", nextPage.getQueryString());
+        assertEquals(Arrays.asList("age", "userId"), nextPage.getKeysetProperties());
+    }
+
+    @Test
+    public void testNullableOrderingIsPagedByOffset() throws ODataException {
+        JPAQuery nextPage = new JPAQueryStrategyBuilder(JPATestModel.getEntityDataModel()).setKeysetPaging(true)
+                .setSkipToken(new JPASkipToken(10, Arrays.asList("Donald Duck", "Donald"))).build(orderBy("name"));
+        assertEquals("SELECT e1 FROM USERS e1 ORDER BY e1.name DESC", nextPage.getQueryString());
+        assertTrue(nextPage.getKeysetProperties().isEmpty());
+        assertEquals(10, nextPage.getSkipCount());
+    }
+
+    @Test(expected = ODataBadRequestException.class)
+    public void testSkipTokenOfOtherType() throws ODataException {
+        new JPAQueryStrategyBuilder(JPATestModel.getEntityDataModel()).setKeysetPaging(true)
+                .setSkipToken(new JPASkipToken(10, Arrays.asList("80", "Donald"))).build(orderBy("age"));
+    }
+
+    @Test(expected = ODataBadRequestException.class)
+    public void testSkipTokenOfOtherQuery() throws ODataException {
+        new JPAQueryStrategyBuilder(JPATestModel.getEntityDataModel()).setKeysetPaging(true)
+                .setSkipToken(new JPASkipToken(10, Collections.singletonList("Donald"))).build(orderBy("age"));
+    }
+
+    private static QueryOperation orderBy(String propertyName) {
+        return new LimitOperation(new OrderByOperation(new SelectOperation("Users", false),
+                JavaConversions.asScalaBuffer(Collections.singletonList(
+                        new OrderByProperty(propertyName, Descending$.MODULE$))).toList()), 10);
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) 2016 All Rights Reserved by the SDL Group.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sdl.odata.jpa;
+
+import com.sdl.odata.api.ODataException;
+import com.sdl.odata.api.edm.model.EntityDataModel;
+import com.sdl.odata.api.processor.query.ComparisonCriteria;
+import com.sdl.odata.api.processor.query.CriteriaFilterOperation;
+import com.sdl.odata.api.processor.query.EqOperator$;
+import com.sdl.odata.api.processor.query.LimitOperation;
+import com.sdl.odata.api.processor.query.LiteralCriteriaValue;
+import com.sdl.odata.api.processor.query.PropertyCriteriaValue;
+import com.sdl.odata.api.processor.query.QueryOperation;
+import com.sdl.odata.api.processor.query.SelectOperation;
+import com.sdl.odata.datasource.jpa.query.JPAQuery;
+import com.sdl.odata.datasource.jpa.query.JPAQueryPlanCache;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for the query plan cache.
+ */
+public class JPAQueryPlanCacheTest {
+
+    private EntityDataModel entityDataModel;
+
+    private JPAQueryPlanCache queryPlanCache;
+
+    @Before
+    public void setUp() throws ODataException {
+        entityDataModel = JPATestModel.getEntityDataModel();
+
+        queryPlanCache = new JPAQueryPlanCache();
+        queryPlanCache.setMaximumSize(10);
+        queryPlanCache.init();
+    }
+
+    @Test
+    public void testSameShapeReusesPlan() throws ODataException {
+        JPAQuery first = queryPlanCache.getQuery(entityDataModel, filterByName("Donald", 5));
+        JPAQuery second = queryPlanCache.getQuery(entityDataModel, filterByName("Mickey", 10));
+
+        assertEquals(1, queryPlanCache.getMissCount());
+        assertEquals(1, queryPlanCache.getHitCount());
+
+        assertEquals(first.getQueryString(), second.getQueryString());
+        assertEquals("Mickey", second.getQueryParams().get("value1"));
+        assertEquals(10, second.getLimitCount());
+    }
+
+    @Test
+    public void testDifferentShapeBuildsNewPlan() throws ODataException {
+        queryPlanCache.getQuery(entityDataModel, filterByName("Donald", 5));
+        JPAQuery query = queryPlanCache.getQuery(entityDataModel, new SelectOperation("Users", false));
+
+        assertEquals(2, queryPlanCache.getMissCount());
+        assertEquals(0, queryPlanCache.getHitCount());
+        assertEquals("SELECT e1 FROM USERS e1", query.getQueryString());
+    }
+
+    private QueryOperation filterByName(String name, int limit) {
+        return new LimitOperation(new CriteriaFilterOperation(new SelectOperation("Users", false),
+                new ComparisonCriteria(EqOperator$.MODULE$, new PropertyCriteriaValue("name"),
+                        new LiteralCriteriaValue(name))), limit);
+    }
+}
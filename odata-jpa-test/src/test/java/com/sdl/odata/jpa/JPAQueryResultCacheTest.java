@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) 2016 All Rights Reserved by the SDL Group.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sdl.odata.jpa;
+
+import com.sdl.odata.api.ODataException;
+import com.sdl.odata.api.edm.model.EntityDataModel;
+import com.sdl.odata.api.processor.query.ExpandOperation;
+import com.sdl.odata.api.processor.query.SelectOperation;
+import com.sdl.odata.datasource.jpa.query.JPAQuery;
+import com.sdl.odata.datasource.jpa.query.JPAQueryResultCache;
+import com.sdl.odata.datasource.jpa.query.JPAQueryStrategyBuilder;
+import org.junit.Before;
+import org.junit.Test;
+import scala.collection.JavaConversions;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the query result cache.
+ */
+public class JPAQueryResultCacheTest {
+
+    private EntityDataModel entityDataModel;
+
+    private JPAQueryResultCache queryResultCache;
+
+    @Before
+    public void setUp() throws ODataException {
+        entityDataModel = JPATestModel.getEntityDataModel();
+
+        queryResultCache = new JPAQueryResultCache();
+        queryResultCache.setMaximumSize(10);
+        queryResultCache.setEntitySets(Collections.singleton("Users"));
+        queryResultCache.init();
+    }
+
+    @Test
+    public void testResultIsLoadedOnce() throws ODataException {
+        JPAQuery query = new JPAQueryStrategyBuilder(entityDataModel).build(new SelectOperation("Users", true));
+        AtomicInteger loads = new AtomicInteger();
+
+        assertEquals(Integer.valueOf(1), queryResultCache.get(query, "", loads::incrementAndGet));
+        assertEquals(Integer.valueOf(1), queryResultCache.get(query, "", loads::incrementAndGet));
+        assertEquals(Integer.valueOf(2), queryResultCache.get(query, "other", loads::incrementAndGet));
+
+        assertEquals(1, queryResultCache.getHitCount());
+        assertTrue(queryResultCache.isEnabled("Users"));
+        assertFalse(queryResultCache.isEnabled("PhotoItems"));
+    }
+
+    @Test
+    public void testWriteInvalidatesReadCollections() throws ODataException {
+        JPAQuery query = new JPAQueryStrategyBuilder(entityDataModel).build(new ExpandOperation(
+                new SelectOperation("Users", true),
+                JavaConversions.asScalaBuffer(Collections.singletonList("photos")).toList()));
+        AtomicInteger loads = new AtomicInteger();
+
+        queryResultCache.get(query, "", loads::incrementAndGet);
+        queryResultCache.invalidate(Collections.singleton("Unrelated"));
+        assertEquals(1, queryResultCache.getSize());
+
+        assertEquals(2, query.getCollectionNames().size());
+        for (String collectionName : query.getCollectionNames()) {
+            queryResultCache.invalidate(Collections.singleton(collectionName));
+            assertEquals(0, queryResultCache.getSize());
+            queryResultCache.get(query, "", loads::incrementAndGet);
+        }
+        assertEquals(3, loads.get());
+    }
+
+    @Test
+    public void testResultsOfDifferentQueriesAreNotShared() throws ODataException {
+        JPAQuery users = new JPAQueryStrategyBuilder(entityDataModel).setBatchExpand(true)
+                .build(new SelectOperation("Users", true));
+        JPAQuery usersWithPhotos = new JPAQueryStrategyBuilder(entityDataModel).setBatchExpand(true)
+                .build(new ExpandOperation(new SelectOperation("Users", true),
+                        JavaConversions.asScalaBuffer(Collections.singletonList("photos")).toList()));
+        assertEquals(users.getQueryString(), usersWithPhotos.getQueryString());
+
+        JPAQuery intParam = new JPAQuery("SELECT e1 FROM USERS e1 WHERE e1.age = :age",
+                Collections.singletonMap("age", 1));
+        JPAQuery stringParam = new JPAQuery("SELECT e1 FROM USERS e1 WHERE e1.age = :age",
+                Collections.singletonMap("age", "1"));
+
+        AtomicInteger loads = new AtomicInteger();
+        queryResultCache.get(users, "", loads::incrementAndGet);
+        queryResultCache.get(usersWithPhotos, "", loads::incrementAndGet);
+        queryResultCache.get(intParam, "", loads::incrementAndGet);
+        queryResultCache.get(stringParam, "", loads::incrementAndGet);
+        assertEquals(4, loads.get());
+        assertEquals(0, queryResultCache.getHitCount());
+    }
+}
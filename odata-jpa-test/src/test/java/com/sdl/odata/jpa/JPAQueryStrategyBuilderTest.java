@@ -0,0 +1,203 @@
+/**
+ * Copyright (c) 2016 All Rights Reserved by the SDL Group.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sdl.odata.jpa;
+
+import com.sdl.odata.api.ODataException;
+import com.sdl.odata.api.ODataNotImplementedException;
+import com.sdl.odata.api.edm.model.EntityDataModel;
+import com.sdl.odata.api.edm.model.StructuredType;
+import com.sdl.odata.api.processor.query.ComparisonCriteria;
+import com.sdl.odata.api.processor.query.CountOperation;
+import com.sdl.odata.api.processor.query.CriteriaFilterOperation;
+import com.sdl.odata.api.processor.query.Descending$;
+import com.sdl.odata.api.processor.query.EqOperator$;
+import com.sdl.odata.api.processor.query.ExpandOperation;
+import com.sdl.odata.api.processor.query.JoinOperation;
+import com.sdl.odata.api.processor.query.JoinSelectRight$;
+import com.sdl.odata.api.processor.query.LimitOperation;
+import com.sdl.odata.api.processor.query.LiteralCriteriaValue;
+import com.sdl.odata.api.processor.query.OrderByOperation;
+import com.sdl.odata.api.processor.query.OrderByProperty;
+import com.sdl.odata.api.processor.query.PropertyCriteriaValue;
+import com.sdl.odata.api.processor.query.QueryOperation;
+import com.sdl.odata.api.processor.query.SelectByKeyOperation;
+import com.sdl.odata.api.processor.query.SelectOperation;
+import com.sdl.odata.datasource.jpa.mapper.JPAProjectionMapper;
+import com.sdl.odata.datasource.jpa.query.JPAQuery;
+import com.sdl.odata.datasource.jpa.query.JPAQueryStrategyBuilder;
+import org.junit.Before;
+import org.junit.Test;
+import scala.collection.JavaConversions;
+import scala.collection.immutable.Map;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static com.sdl.odata.util.edm.EntityDataModelUtil.getPropertyValue;
+
+/**
+ * Tests for building JPA queries from the OData query model.
+ */
+public class JPAQueryStrategyBuilderTest {
+
+    private EntityDataModel entityDataModel;
+
+    @Before
+    public void setUp() throws ODataException {
+        entityDataModel = JPATestModel.getEntityDataModel();
+    }
+
+    @Test
+    public void testCountQuery() throws ODataException {
+        QueryOperation operation = new LimitOperation(new CriteriaFilterOperation(
+                new CountOperation(new SelectOperation("Users", true), true),
+                new ComparisonCriteria(EqOperator$.MODULE$, new PropertyCriteriaValue("name"),
+                        new LiteralCriteriaValue("Donald"))), 10);
+
+        assertTrue(JPAQueryStrategyBuilder.isCountOperation(operation));
+
+        JPAQuery query = new JPAQueryStrategyBuilder(entityDataModel).build(operation);
+        assertEquals("SELECT COUNT(DISTINCT e1) FROM USERS e1 WHERE (e1.name = :value1)", query.getQueryString());
+        assertEquals("Donald", query.getQueryParams().get("value1"));
+        assertEquals(-1, query.getLimitCount());
+    }
+
+    @Test
+    public void testProjectionQuery() throws ODataException {
+        QueryOperation operation = new SelectOperation("Users", false)
+                .select(JavaConversions.asScalaBuffer(Arrays.asList("name", "age")));
+
+        JPAQuery query = new JPAQueryStrategyBuilder(entityDataModel).build(operation);
+        assertEquals("SELECT e1.name,e1.age,e1.userId FROM USERS e1", query.getQueryString());
+        assertEquals(Arrays.asList("name", "age", "userId"), query.getSelectProperties());
+
+        StructuredType userType = (StructuredType) entityDataModel.getType(
+                entityDataModel.getEntityContainer().getEntitySet("Users").getTypeName());
+        Object user = new JPAProjectionMapper().convertRowToOData(new Object[] {"Donald Duck", 81, "Donald"},
+                userType.getJavaType(), query.getSelectProperties(), entityDataModel);
+
+        assertEquals("Donald Duck", getPropertyValue(userType.getStructuralProperty("name"), user));
+        assertEquals(81, getPropertyValue(userType.getStructuralProperty("age"), user));
+        assertEquals("Donald", getPropertyValue(userType.getStructuralProperty("userId"), user));
+    }
+
+    @Test
+    public void testBatchExpand() throws ODataException {
+        QueryOperation operation = new LimitOperation(new ExpandOperation(new SelectOperation("Users", true),
+                JavaConversions.asScalaBuffer(Collections.singletonList("photos")).toList()), 10);
+
+        JPAQuery joinFetch = new JPAQueryStrategyBuilder(entityDataModel).build(operation);
+        assertEquals("SELECT DISTINCT e1.userId FROM USERS e1", joinFetch.getQueryString());
+        assertEquals("SELECT DISTINCT e1 FROM USERS e1 LEFT JOIN FETCH e1.photos WHERE e1.userId IN (:fetchKeys)",
+                joinFetch.getFetchQueryString());
+        assertTrue(joinFetch.getBatchExpandFields().isEmpty());
+
+        JPAQuery batch = new JPAQueryStrategyBuilder(entityDataModel).setBatchExpand(true).build(operation);
+        assertEquals("SELECT DISTINCT e1 FROM USERS e1", batch.getQueryString());
+        assertNull(batch.getFetchQueryString());
+        assertEquals(Collections.singletonList("e1.photos"), batch.getBatchExpandFields());
+
+        JPAQuery overridden = new JPAQueryStrategyBuilder(entityDataModel).setBatchExpand(true)
+                .setJoinFetchExpands(Collections.singleton("Users.photos")).build(operation);
+        assertEquals(joinFetch.getQueryString(), overridden.getQueryString());
+        assertEquals(joinFetch.getFetchQueryString(), overridden.getFetchQueryString());
+    }
+
+    @Test
+    public void testTwoPhaseFetch() throws ODataException {
+        QueryOperation operation = new LimitOperation(new ExpandOperation(new OrderByOperation(
+                new SelectOperation("Users", true), JavaConversions.asScalaBuffer(Collections.singletonList(
+                        new OrderByProperty("name", Descending$.MODULE$))).toList()),
+                JavaConversions.asScalaBuffer(Collections.singletonList("photos")).toList()), 10);
+
+        JPAQuery query = new JPAQueryStrategyBuilder(entityDataModel).build(operation);
+        assertEquals("SELECT DISTINCT e1.userId,e1.name FROM USERS e1 ORDER BY e1.name DESC", query.getQueryString());
+        assertEquals("SELECT DISTINCT e1 FROM USERS e1 LEFT JOIN FETCH e1.photos WHERE e1.userId IN (:fetchKeys)",
+                query.getFetchQueryString());
+        assertEquals(10, query.getLimitCount());
+
+        JPAQuery unpaged = new JPAQueryStrategyBuilder(entityDataModel)
+                .build(((LimitOperation) operation).getSource());
+        assertEquals("SELECT DISTINCT e1 FROM USERS e1 LEFT JOIN FETCH e1.photos ORDER BY e1.name DESC",
+                unpaged.getQueryString());
+        assertNull(unpaged.getFetchQueryString());
+    }
+
+    @Test
+    public void testStatements() throws ODataException {
+        QueryOperation operation = new CriteriaFilterOperation(new SelectOperation("Users", true),
+                new ComparisonCriteria(EqOperator$.MODULE$, new PropertyCriteriaValue("name"),
+                        new LiteralCriteriaValue("Donald")));
+
+        JPAQuery delete = new JPAQueryStrategyBuilder(entityDataModel).buildDelete(operation);
+        assertEquals("DELETE FROM USERS e1 WHERE (e1.name = :value1)", delete.getQueryString());
+        assertEquals("Donald", delete.getQueryParams().get("value1"));
+        assertEquals(Collections.singleton("USERS"), delete.getCollectionNames());
+
+        JPAQuery update = new JPAQueryStrategyBuilder(entityDataModel).buildUpdate(operation,
+                Collections.singletonMap("email", "donald@example.com"));
+        assertEquals("UPDATE USERS e1 SET e1.email = :set1 WHERE (e1.name = :value1)", update.getQueryString());
+        assertEquals("donald@example.com", update.getQueryParams().get("set1"));
+        assertEquals("Donald", update.getQueryParams().get("value1"));
+    }
+
+    @Test(expected = ODataNotImplementedException.class)
+    public void testPagedStatement() throws ODataException {
+        new JPAQueryStrategyBuilder(entityDataModel).buildDelete(
+                new LimitOperation(new SelectOperation("Users", true), 10));
+    }
+
+    @Test
+    public void testKeysOnlyQuery() throws ODataException {
+        QueryOperation operation = new JoinOperation(
+                new SelectByKeyOperation(new SelectOperation("Users", true), new Map.Map1<>("userId", "Donald")),
+                new SelectOperation("PhotoItems", true), "photos", JoinSelectRight$.MODULE$, false);
+
+        JPAQuery query = new JPAQueryStrategyBuilder(entityDataModel)
+                .build(JPAQueryStrategyBuilder.selectKeys(entityDataModel, operation));
+        assertEquals("SELECT DISTINCT e2.id FROM USERS e1 JOIN e1.photos e2 WHERE e1.userId = :e1userId",
+                query.getQueryString());
+        assertEquals(Collections.singletonList("id"), query.getSelectProperties());
+    }
+
+    @Test
+    public void testOrderedJoinQuery() throws ODataException {
+        QueryOperation operation = new OrderByOperation(new JoinOperation(
+                new SelectByKeyOperation(new SelectOperation("Users", true), new Map.Map1<>("userId", "Donald")),
+                new SelectOperation("PhotoItems", true), "photos", JoinSelectRight$.MODULE$, false),
+                JavaConversions.asScalaBuffer(Collections.singletonList(
+                        new OrderByProperty("name", Descending$.MODULE$))).toList());
+
+        JPAQuery query = new JPAQueryStrategyBuilder(entityDataModel).build(operation);
+        assertEquals("SELECT DISTINCT e2 FROM USERS e1 JOIN e1.photos e2 WHERE e1.userId = :e1userId "
+                + "ORDER BY e2.name DESC", query.getQueryString());
+    }
+
+    @Test
+    public void testConvertParameter() {
+        assertEquals(new BigDecimal("9.99"), JPAQuery.convertParameter(scala.math.BigDecimal.apply("9.99"), null));
+        assertEquals(9.99, JPAQuery.convertParameter(scala.math.BigDecimal.apply("9.99"), Double.class));
+        assertEquals(new BigDecimal("9.99"), JPAQuery.convertParameter(scala.math.BigDecimal.apply("9.99"), int.class));
+        assertEquals(10, JPAQuery.convertParameter(scala.math.BigDecimal.apply("10"), null));
+        assertEquals(10L, JPAQuery.convertParameter(scala.math.BigDecimal.apply("10"), Long.class));
+        assertEquals(10000000000L, JPAQuery.convertParameter(scala.math.BigDecimal.apply("10000000000"), null));
+        assertEquals("Donald", JPAQuery.convertParameter("Donald", String.class));
+    }
+}
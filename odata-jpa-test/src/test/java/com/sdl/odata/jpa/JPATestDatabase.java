@@ -0,0 +1,135 @@
+/**
+ * Copyright (c) 2016 All Rights Reserved by the SDL Group.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sdl.odata.jpa;
+
+import com.sdl.odata.datasource.jpa.JPADataSource;
+import com.sdl.odata.datasource.jpa.JPAEntityManagerTracker;
+import com.sdl.odata.datasource.jpa.JPAPooledDataSource;
+import com.sdl.odata.datasource.jpa.mapper.AnnotationJPAEntityMapper;
+import com.sdl.odata.datasource.jpa.query.JPAQueryResultCache;
+import com.sdl.odata.jpa.model.User;
+import org.hsqldb.jdbc.JDBCDriver;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * In memory HSQLDB database of the test JPA model, the database is created once per JVM and is emptied by the tests
+ * that write to it. The database is accessed through a pool of a single connection, so every operation borrows the
+ * connection that was used by the operation before it.
+ */
+public final class JPATestDatabase {
+    private static final int POOL_TIMEOUT = 5000;
+
+    private static EntityManagerFactory entityManagerFactory;
+
+    private JPATestDatabase() {
+    }
+
+    public static synchronized EntityManagerFactory getEntityManagerFactory() {
+        if (entityManagerFactory == null) {
+            JPAPooledDataSource dataSource = new JPAPooledDataSource();
+            dataSource.setDriverClassName(JDBCDriver.class.getName());
+            dataSource.setUrl("jdbc:hsqldb:mem:jpatest");
+            dataSource.setUsername("sa");
+            dataSource.setPassword("");
+            dataSource.setInitialSize(1);
+            dataSource.setMaxActive(1);
+            dataSource.setMaxIdle(1);
+            dataSource.setMaxWait(POOL_TIMEOUT);
+
+            HibernateJpaVendorAdapter jpaVendorAdapter = new HibernateJpaVendorAdapter();
+            jpaVendorAdapter.setDatabasePlatform("org.hibernate.dialect.HSQLDialect");
+            jpaVendorAdapter.setGenerateDdl(true);
+
+            LocalContainerEntityManagerFactoryBean factoryBean = new LocalContainerEntityManagerFactoryBean();
+            factoryBean.setDataSource(dataSource);
+            factoryBean.setJpaVendorAdapter(jpaVendorAdapter);
+            factoryBean.setPackagesToScan(User.class.getPackage().getName());
+            factoryBean.afterPropertiesSet();
+            entityManagerFactory = factoryBean.getObject();
+        }
+
+        return entityManagerFactory;
+    }
+
+    /**
+     * Creates a data source on the test database, without a query result cache.
+     * @return The data source
+     */
+    public static JPADataSource createDataSource() {
+        JPAEntityManagerTracker entityManagerTracker = new JPAEntityManagerTracker();
+        entityManagerTracker.setEntityManagerFactory(getEntityManagerFactory());
+        entityManagerTracker.init();
+
+        JPAQueryResultCache queryResultCache = new JPAQueryResultCache();
+        queryResultCache.init();
+
+        JPADataSource dataSource = new JPADataSource();
+        dataSource.setEntityMapper(new AnnotationJPAEntityMapper());
+        dataSource.setEntityManagerFactory(getEntityManagerFactory());
+        dataSource.setQueryResultCache(queryResultCache);
+        dataSource.setEntityManagerTracker(entityManagerTracker);
+        return dataSource;
+    }
+
+    /**
+     * Writes to the test database in a transaction of its own.
+     * @param writer Writes with the entity manager
+     */
+    public static void write(Consumer<EntityManager> writer) {
+        EntityManager entityManager = getEntityManagerFactory().createEntityManager();
+        try {
+            entityManager.getTransaction().begin();
+            writer.accept(entityManager);
+            entityManager.getTransaction().commit();
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * Reads from the test database with a new persistence context, so nothing is read from a cache.
+     * @param reader Reads with the entity manager
+     * @param <T> The type of the result
+     * @return The result of the reader
+     */
+    public static <T> T read(Function<EntityManager, T> reader) {
+        EntityManager entityManager = getEntityManagerFactory().createEntityManager();
+        try {
+            return reader.apply(entityManager);
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * Deletes all entities of the test model.
+     */
+    public static void clear() {
+        write(entityManager -> {
+            entityManager.createNativeQuery("DELETE FROM ALBUM_PHOTOS").executeUpdate();
+            entityManager.createNativeQuery("DELETE FROM ALBUM_TAGS").executeUpdate();
+            entityManager.createQuery("DELETE FROM ALBUMS").executeUpdate();
+            entityManager.createQuery("DELETE FROM PHOTOS").executeUpdate();
+            entityManager.createQuery("DELETE FROM USERS").executeUpdate();
+        });
+    }
+}
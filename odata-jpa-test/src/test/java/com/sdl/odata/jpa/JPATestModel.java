@@ -0,0 +1,55 @@
+/**
+ * Copyright (c) 2016 All Rights Reserved by the SDL Group.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sdl.odata.jpa;
+
+import com.sdl.odata.api.edm.ODataEdmException;
+import com.sdl.odata.api.edm.model.EntityDataModel;
+import com.sdl.odata.api.processor.datasource.ODataDataSourceException;
+import com.sdl.odata.datasource.jpa.JPAODataEntityGeneratorImpl;
+import com.sdl.odata.edm.factory.annotations.AnnotationEntityDataModelFactory;
+import com.sdl.odata.jpa.model.Album;
+import com.sdl.odata.jpa.model.PhotoItem;
+import com.sdl.odata.jpa.model.User;
+
+import java.util.Arrays;
+
+/**
+ * Entity data model of the test JPA model, the OData classes can only be generated once per JVM
+ * so all tests share the same model.
+ */
+public final class JPATestModel {
+    private static final String NAMESPACE = "Sdl.TestModel";
+
+    private static EntityDataModel entityDataModel;
+
+    private JPATestModel() {
+    }
+
+    public static synchronized EntityDataModel getEntityDataModel()
+            throws ODataDataSourceException, ODataEdmException {
+        if (entityDataModel == null) {
+            JPAODataEntityGeneratorImpl generator = new JPAODataEntityGeneratorImpl();
+            generator.setOdataNamespace(NAMESPACE);
+
+            AnnotationEntityDataModelFactory factory = new AnnotationEntityDataModelFactory();
+            generator.generateODataEntityClasses(Arrays.asList(PhotoItem.class, User.class, Album.class))
+                    .forEach(factory::addClass);
+            entityDataModel = factory.buildEntityDataModel();
+        }
+
+        return entityDataModel;
+    }
+}
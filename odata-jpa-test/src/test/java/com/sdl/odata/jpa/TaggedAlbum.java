@@ -0,0 +1,53 @@
+/**
+ * Copyright (c) 2016 All Rights Reserved by the SDL Group.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sdl.odata.jpa;
+
+import com.sdl.odata.api.edm.annotations.EdmEntity;
+import com.sdl.odata.api.edm.annotations.EdmEntitySet;
+import com.sdl.odata.api.edm.annotations.EdmProperty;
+import com.sdl.odata.datasource.jpa.ODataJPAEntity;
+import com.sdl.odata.datasource.jpa.ODataJPAProperty;
+
+import java.util.List;
+
+/**
+ * OData entity of an album with its tags, the tags are an element collection that the generated OData entities do
+ * not map. Like a generated OData entity its fields are package private, so a generated mapper can access them.
+ */
+@EdmEntity(name = "TaggedAlbum", namespace = "Sdl.TaggedModel", key = "id")
+@EdmEntitySet(name = "TaggedAlbums")
+@ODataJPAEntity("com.sdl.odata.jpa.model.Album")
+public class TaggedAlbum {
+    @EdmProperty(name = "id")
+    @ODataJPAProperty
+    String id;
+
+    @EdmProperty(name = "name")
+    @ODataJPAProperty
+    String name;
+
+    @EdmProperty(name = "tags")
+    @ODataJPAProperty
+    List<String> tags;
+
+    public String getName() {
+        return name;
+    }
+
+    public List<String> getTags() {
+        return tags;
+    }
+}
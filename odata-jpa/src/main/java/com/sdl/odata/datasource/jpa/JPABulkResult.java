@@ -0,0 +1,95 @@
+/**
+ * Copyright (c) 2016 All Rights Reserved by the SDL Group.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sdl.odata.datasource.jpa;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * The result of a bulk create, which reports for every committed chunk of entities if it succeeded or failed. The
+ * entities of a failed chunk are not created, the chunks before and after it are not affected.
+ */
+public final class JPABulkResult {
+
+    private final List<Chunk> chunks = new ArrayList<>();
+
+    void addChunk(Chunk chunk) {
+        chunks.add(chunk);
+    }
+
+    public List<Chunk> getChunks() {
+        return Collections.unmodifiableList(chunks);
+    }
+
+    public List<Chunk> getFailedChunks() {
+        return chunks.stream().filter(Chunk::isFailed).collect(Collectors.toList());
+    }
+
+    public long getCreatedCount() {
+        return chunks.stream().filter(chunk -> !chunk.isFailed()).mapToLong(Chunk::getSize).sum();
+    }
+
+    public long getFailedCount() {
+        return chunks.stream().filter(Chunk::isFailed).mapToLong(Chunk::getSize).sum();
+    }
+
+    @Override
+    public String toString() {
+        return "JPABulkResult[created=" + getCreatedCount() + ", failed=" + getFailedCount() + ", chunks=" +
+                chunks.size() + "]";
+    }
+
+    /**
+     * A chunk of entities that is committed in one transaction.
+     */
+    public static final class Chunk {
+        private final long offset;
+        private final int size;
+        private final Exception error;
+
+        Chunk(long offset, int size, Exception error) {
+            this.offset = offset;
+            this.size = size;
+            this.error = error;
+        }
+
+        /**
+         * The position of the first entity of the chunk in the bulk.
+         * @return The offset of the chunk
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public boolean isFailed() {
+            return error != null;
+        }
+
+        /**
+         * The error that rolled back the chunk.
+         * @return The error, or {@code null} if the chunk was committed
+         */
+        public Exception getError() {
+            return error;
+        }
+    }
+}
@@ -15,18 +15,27 @@
  */
 package com.sdl.odata.datasource.jpa;
 
+import com.google.common.primitives.Primitives;
 import com.sdl.odata.api.ODataException;
 import com.sdl.odata.api.edm.model.EntityDataModel;
+import com.sdl.odata.api.edm.model.EntityType;
+import com.sdl.odata.api.edm.model.PropertyRef;
 import com.sdl.odata.api.mapper.EntityMapper;
 import com.sdl.odata.api.parser.ODataUri;
 import com.sdl.odata.api.processor.datasource.DataSource;
 import com.sdl.odata.api.processor.datasource.ODataDataSourceException;
+import com.sdl.odata.api.processor.datasource.ODataEntityNotFoundException;
 import com.sdl.odata.api.processor.datasource.TransactionalDataSource;
 import com.sdl.odata.api.processor.link.ODataLink;
+import com.sdl.odata.api.processor.query.QueryOperation;
+import com.sdl.odata.datasource.jpa.query.JPALinkStatement;
+import com.sdl.odata.datasource.jpa.query.JPAQuery;
+import com.sdl.odata.datasource.jpa.query.JPAQueryResultCache;
+import com.sdl.odata.datasource.jpa.query.JPAQueryStrategyBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.context.ApplicationContext;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Primary;
 import org.springframework.stereotype.Component;
 import scala.Option;
@@ -35,8 +44,25 @@ import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.EntityTransaction;
 import javax.persistence.PersistenceException;
+import javax.persistence.Query;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
 
 import static com.sdl.odata.api.parser.ODataUriUtil.extractEntityWithKeys;
+import static com.sdl.odata.datasource.jpa.query.JPAQuery.convertParameter;
+import static com.sdl.odata.datasource.jpa.query.JPAStatementBuilder.buildDelete;
+import static com.sdl.odata.datasource.jpa.query.JPAStatementBuilder.buildUpdate;
+import static com.sdl.odata.datasource.jpa.util.JPAMetadataUtil.getJPACollectionNames;
+import static com.sdl.odata.datasource.jpa.util.JPAMetadataUtil.getJPAEntityClass;
+import static com.sdl.odata.datasource.jpa.util.ReflectionUtil.writeField;
+import static com.sdl.odata.util.edm.EntityDataModelUtil.getAndCheckEntityType;
 
 /**
  * The default JPA datasource, this datasource by default will create a transaction per operation.
@@ -55,32 +81,94 @@ public class JPADataSource implements DataSource {
     private EntityManagerFactory entityManagerFactory;
 
     @Autowired
-    private ApplicationContext applicationContext;
+    private JPAQueryResultCache queryResultCache;
+
+    @Autowired
+    private JPAEntityManagerTracker entityManagerTracker;
+
+    @Value("${datasource.jdbc.batchSize:50}")
+    private int batchSize;
+
+    @Value("${datasource.bulk.chunkSize:10000}")
+    private int chunkSize;
+
+    @Value("${datasource.write.returnMinimal:false}")
+    private boolean returnMinimal;
+
+    public JPADataSource() {
+    }
+
+    /**
+     * Creates a data source that shares the collaborators and the settings of the given data source.
+     * @param dataSource The data source to copy
+     */
+    protected JPADataSource(JPADataSource dataSource) {
+        this.entityMapper = dataSource.entityMapper;
+        this.entityManagerFactory = dataSource.entityManagerFactory;
+        this.queryResultCache = dataSource.queryResultCache;
+        this.entityManagerTracker = dataSource.entityManagerTracker;
+        this.batchSize = dataSource.batchSize;
+        this.chunkSize = dataSource.chunkSize;
+        this.returnMinimal = dataSource.returnMinimal;
+    }
 
     @Override
     public Object create(ODataUri uri, Object entity, EntityDataModel entityDataModel) throws ODataException {
         Object jpaEntity = entityMapper.convertODataEntityToDS(entity, entityDataModel);
         EntityManager entityManager = getEntityManager();
-        EntityTransaction transaction = entityManager.getTransaction();
         try {
-            transaction.begin();
+            beginOperation(entityManager);
 
             LOG.info("Persisting entity: {}", jpaEntity);
             entityManager.persist(jpaEntity);
 
-            return entityMapper.convertDSEntityToOData(jpaEntity, entity.getClass(), entityDataModel);
+            return toWrittenEntity(entity, jpaEntity, entityDataModel);
         } finally {
-            if (transaction.isActive()) {
-                transaction.commit();
-            } else {
-                transaction.rollback();
-            }
+            endOperation(entityManager);
+            invalidateQueryResults(getJPACollectionNames(jpaEntity.getClass()));
         }
     }
 
+    /**
+     * Replaces the entity with the key of the given entity. The entity is updated with a JPQL statement when
+     * possible, otherwise it is merged by the entity manager.
+     */
     @Override
     public Object update(ODataUri uri, Object entity, EntityDataModel entityDataModel) throws ODataException {
-        return create(uri, entity, entityDataModel);
+        Object jpaEntity = entityMapper.convertODataEntityToDS(entity, entityDataModel);
+        JPAQuery statement = isStatementUpdate() ? buildUpdate(jpaEntity, entityManagerFactory.getMetamodel()) : null;
+        EntityManager entityManager = getEntityManager();
+        try {
+            beginOperation(entityManager);
+
+            LOG.info("Updating entity: {}", jpaEntity);
+            Object writtenEntity;
+            if (statement != null) {
+                writtenEntity = executeStatement(entityManager, createStatement(entityManager, statement)) > 0 ?
+                        jpaEntity : null;
+            } else {
+                writtenEntity = mergeExisting(entityManager, jpaEntity);
+            }
+            if (writtenEntity == null) {
+                throw new ODataEntityNotFoundException("Could not update entity, it does not exist");
+            }
+
+            return toWrittenEntity(entity, writtenEntity, entityDataModel);
+        } catch (PersistenceException e) {
+            LOG.error("Could not update entity: {}", entity);
+            throw new ODataDataSourceException("Could not update entity", e);
+        } finally {
+            endOperation(entityManager);
+            invalidateQueryResults(getJPACollectionNames(jpaEntity.getClass()));
+        }
+    }
+
+    private Object mergeExisting(EntityManager entityManager, Object jpaEntity) {
+        Object id = entityManagerFactory.getPersistenceUnitUtil().getIdentifier(jpaEntity);
+        if (id == null || entityManager.find(jpaEntity.getClass(), id) == null) {
+            return null;
+        }
+        return entityManager.merge(jpaEntity);
     }
 
     @Override
@@ -89,11 +177,30 @@ public class JPADataSource implements DataSource {
 
         if (entity.isDefined()) {
             Object jpaEntity = entityMapper.convertODataEntityToDS(entity.get(), entityDataModel);
-            if (jpaEntity != null) {
+            JPAQuery statement = jpaEntity != null ?
+                    buildDelete(jpaEntity, entityManagerFactory.getMetamodel()) : null;
+            if (statement != null) {
+                EntityManager entityManager = getEntityManager();
+                int deletedCount;
+                try {
+                    beginOperation(entityManager);
+
+                    deletedCount = executeStatement(entityManager, createStatement(entityManager, statement));
+                } catch (PersistenceException e) {
+                    LOG.error("Could not remove entity: {}", entity);
+                    throw new ODataDataSourceException("Could not remove entity", e);
+                } finally {
+                    endOperation(entityManager);
+                    invalidateQueryResults(getJPACollectionNames(jpaEntity.getClass()));
+                }
+
+                if (deletedCount == 0) {
+                    throw new ODataEntityNotFoundException("Could not remove entity, it does not exist");
+                }
+            } else if (jpaEntity != null) {
                 EntityManager entityManager = getEntityManager();
-                EntityTransaction transaction = entityManager.getTransaction();
                 try {
-                    transaction.begin();
+                    beginOperation(entityManager);
 
                     Object attached = entityManager.merge(jpaEntity);
                     entityManager.remove(attached);
@@ -101,11 +208,8 @@ public class JPADataSource implements DataSource {
                     LOG.error("Could not remove entity: {}", entity);
                     throw new ODataDataSourceException("Could not remove entity", e);
                 } finally {
-                    if (transaction.isActive()) {
-                        transaction.commit();
-                    } else {
-                        transaction.rollback();
-                    }
+                    endOperation(entityManager);
+                    invalidateQueryResults(getJPACollectionNames(jpaEntity.getClass()));
                 }
             } else {
                 throw new ODataDataSourceException("Could not remove entity, could not be loaded");
@@ -113,26 +217,296 @@ public class JPADataSource implements DataSource {
         }
     }
 
+    /**
+     * Creates the given entities in bulk. The entities are committed in chunks, each chunk in its own transaction and
+     * entity manager, independent of a transaction of this data source. Within a chunk the entities are inserted in
+     * JDBC batches, after every batch the persistence context is flushed and cleared.
+     *
+     * @param entities The OData entities to create
+     * @param entityDataModel The entity data model
+     * @return The result of every chunk
+     */
+    public JPABulkResult bulkCreate(Stream<?> entities, EntityDataModel entityDataModel) {
+        JPABulkResult result = new JPABulkResult();
+        Iterator<?> iterator = entities.iterator();
+        long offset = 0;
+        while (iterator.hasNext()) {
+            List<Object> chunk = new ArrayList<>();
+            while (iterator.hasNext() && (chunk.isEmpty() || chunk.size() < chunkSize)) {
+                chunk.add(iterator.next());
+            }
+
+            result.addChunk(createChunk(chunk, offset, entityDataModel));
+            offset += chunk.size();
+        }
+
+        LOG.info("Bulk created entities: {}", result);
+        return result;
+    }
+
+    private JPABulkResult.Chunk createChunk(List<Object> entities, long offset, EntityDataModel entityDataModel) {
+        Set<Class<?>> entityClasses = new HashSet<>();
+        EntityManager entityManager = entityManagerTracker.open();
+        EntityTransaction transaction = entityManager.getTransaction();
+        try {
+            transaction.begin();
+            int count = 0;
+            for (Object entity : entities) {
+                Object jpaEntity = entityMapper.convertODataEntityToDS(entity, entityDataModel);
+                entityManager.persist(jpaEntity);
+                entityClasses.add(jpaEntity.getClass());
+
+                if (batchSize > 0 && ++count % batchSize == 0) {
+                    entityManager.flush();
+                    entityManager.clear();
+                }
+            }
+            transaction.commit();
+
+            LOG.debug("Created chunk of {} entities at offset {}", entities.size(), offset);
+            return new JPABulkResult.Chunk(offset, entities.size(), null);
+        } catch (ODataException | RuntimeException e) {
+            LOG.warn("Could not create chunk of {} entities at offset {}", entities.size(), offset, e);
+            return new JPABulkResult.Chunk(offset, entities.size(), e);
+        } finally {
+            try {
+                if (transaction.isActive()) {
+                    transaction.rollback();
+                }
+            } finally {
+                entityManagerTracker.close(entityManager);
+            }
+            for (Class<?> entityClass : entityClasses) {
+                queryResultCache.invalidate(getJPACollectionNames(entityClass));
+            }
+        }
+    }
+
+    /**
+     * Gets the OData entity that is returned for a written JPA entity. With minimal returns the written OData entity
+     * is returned with the key that was assigned by the persistence provider, instead of converting the JPA entity
+     * back. Entities with a composite key are always converted.
+     */
+    private Object toWrittenEntity(Object entity, Object jpaEntity, EntityDataModel entityDataModel)
+            throws ODataException {
+        if (returnMinimal) {
+            EntityType entityType = getAndCheckEntityType(entityDataModel, entity.getClass());
+            List<PropertyRef> propertyRefs = entityType.getKey().getPropertyRefs();
+            Object id = entityManagerFactory.getPersistenceUnitUtil().getIdentifier(jpaEntity);
+            if (propertyRefs.size() == 1 && id != null) {
+                Field keyField = entityType.getStructuralProperty(propertyRefs.get(0).getPath()).getJavaField();
+                if (Primitives.wrap(keyField.getType()).isInstance(id)) {
+                    writeField(keyField, entity, id);
+                    return entity;
+                }
+            }
+        }
+
+        return entityMapper.convertDSEntityToOData(jpaEntity, entity.getClass(), entityDataModel);
+    }
+
+    /**
+     * Deletes the entities selected by the given operation with a single statement, without loading them. The
+     * removal does not cascade to other entities.
+     * @param operation The operation, which selects an entity set optionally filtered by criteria or a key
+     * @param entityDataModel The entity data model
+     * @return The number of deleted entities
+     * @throws ODataException If the operation can not be executed as a statement or the statement fails
+     */
+    public int deleteWhere(QueryOperation operation, EntityDataModel entityDataModel) throws ODataException {
+        JPAQuery statement = new JPAQueryStrategyBuilder(entityDataModel).buildDelete(operation);
+        return executeWhere(statement, operation, entityDataModel);
+    }
+
+    /**
+     * Sets properties of the entities selected by the given operation with a single statement, without loading
+     * them.
+     * @param operation The operation, which selects an entity set optionally filtered by criteria or a key
+     * @param values The new values by the names of the OData properties
+     * @param entityDataModel The entity data model
+     * @return The number of updated entities
+     * @throws ODataException If the operation can not be executed as a statement or the statement fails
+     */
+    public int updateWhere(QueryOperation operation, Map<String, Object> values, EntityDataModel entityDataModel)
+            throws ODataException {
+        JPAQuery statement = new JPAQueryStrategyBuilder(entityDataModel).buildUpdate(operation, values);
+        return executeWhere(statement, operation, entityDataModel);
+    }
+
+    private int executeWhere(JPAQuery statement, QueryOperation operation, EntityDataModel entityDataModel)
+            throws ODataException {
+        EntityManager entityManager = getEntityManager();
+        try {
+            beginOperation(entityManager);
+
+            int count = executeStatement(entityManager, createStatement(entityManager, statement));
+            LOG.info("Executed {} on {} entities", statement, count);
+            return count;
+        } catch (PersistenceException e) {
+            LOG.error("Could not execute statement: {}", statement);
+            throw new ODataDataSourceException("Could not execute statement", e);
+        } finally {
+            endOperation(entityManager);
+            String typeName = entityDataModel.getEntityContainer().getEntitySet(operation.entitySetName())
+                    .getTypeName();
+            invalidateQueryResults(getJPACollectionNames(
+                    getJPAEntityClass(getAndCheckEntityType(entityDataModel, typeName).getJavaType())));
+        }
+    }
+
+    /**
+     * Links the entities by updating the foreign key of the owning entity, or by inserting the row of the join
+     * table, without loading the entities.
+     */
     @Override
     public void createLink(ODataUri uri, ODataLink link, EntityDataModel entityDataModel) throws ODataException {
-
+        JPALinkStatement statement = JPALinkStatement.from(link, entityManagerFactory);
+        if (executeLink(statement, true) == 0) {
+            throw new ODataEntityNotFoundException("Could not create link, the entity does not exist: " + statement);
+        }
     }
 
+    /**
+     * Unlinks the entities by clearing the foreign key of the owning entity, or by deleting the row of the join
+     * table, without loading the entities.
+     */
     @Override
     public void deleteLink(ODataUri uri, ODataLink link, EntityDataModel entityDataModel) throws ODataException {
+        JPALinkStatement statement = JPALinkStatement.from(link, entityManagerFactory);
+        if (executeLink(statement, false) == 0) {
+            throw new ODataEntityNotFoundException("Could not delete link, the link does not exist: " + statement);
+        }
+    }
+
+    private int executeLink(JPALinkStatement statement, boolean create) throws ODataException {
+        EntityManager entityManager = getEntityManager();
+        try {
+            beginOperation(entityManager);
 
+            LOG.info("{} link: {}", create ? "Creating" : "Deleting", statement);
+            return executeStatement(entityManager,
+                    create ? statement.createLink(entityManager) : statement.deleteLink(entityManager));
+        } catch (PersistenceException e) {
+            LOG.error("Could not write link: {}", statement);
+            throw new ODataDataSourceException("Could not write link", e);
+        } finally {
+            endOperation(entityManager);
+            invalidateQueryResults(statement.getCollectionNames());
+        }
+    }
+
+    /**
+     * Invalidates the cached query results of the given collections, after entities of the collections have been
+     * written.
+     * @param collectionNames The names of the written JPA collections
+     */
+    protected void invalidateQueryResults(Collection<String> collectionNames) {
+        queryResultCache.invalidate(collectionNames);
+    }
+
+    protected JPAQueryResultCache getQueryResultCache() {
+        return queryResultCache;
     }
 
     protected EntityManagerFactory getEntityManagerFactory() {
         return entityManagerFactory;
     }
 
+    /**
+     * Starts a transaction for the operations of a $batch changeset.
+     * @return The transactional data source, which shares the collaborators of this data source
+     */
     @Override
     public TransactionalDataSource startTransaction() {
-        return applicationContext.getBean(JPATransactionDataSource.class);
+        return new JPATransactionDataSource(this);
     }
 
+    protected JPAEntityManagerTracker getEntityManagerTracker() {
+        return entityManagerTracker;
+    }
+
+    /**
+     * Gets the entity manager of an operation, which is released with {@link #endOperation} when the
+     * operation is done.
+     * @return The entity manager
+     */
     protected EntityManager getEntityManager() {
-        return entityManagerFactory.createEntityManager();
+        return entityManagerTracker.open();
+    }
+
+    private Query createStatement(EntityManager entityManager, JPAQuery statement) {
+        Query query = entityManager.createQuery(statement.getQueryString());
+        for (Map.Entry<String, Object> entry : statement.getQueryParams().entrySet()) {
+            query.setParameter(entry.getKey(), convertParameter(entry.getValue(),
+                    query.getParameter(entry.getKey()).getParameterType()));
+        }
+        return query;
+    }
+
+    /**
+     * Whether an update is executed as a JPQL statement, when the entity can be updated with a statement.
+     * @return {@code true} if updates are executed as statements, {@code false} if they are always merged
+     */
+    protected boolean isStatementUpdate() {
+        return true;
+    }
+
+    /**
+     * Executes a statement that writes entities without loading them.
+     * @param entityManager The entity manager of the operation
+     * @param statement The update, delete or insert statement
+     * @return The number of written rows
+     */
+    protected int executeStatement(EntityManager entityManager, Query statement) {
+        return statement.executeUpdate();
+    }
+
+    /**
+     * Begins the transaction of an operation.
+     * @param entityManager The entity manager that was returned by {@link #getEntityManager()}
+     */
+    protected void beginOperation(EntityManager entityManager) {
+        entityManager.getTransaction().begin();
+    }
+
+    /**
+     * Ends the transaction of an operation and releases its entity manager.
+     * @param entityManager The entity manager that was returned by {@link #getEntityManager()}
+     */
+    protected void endOperation(EntityManager entityManager) {
+        EntityTransaction transaction = entityManager.getTransaction();
+        try {
+            if (transaction.isActive()) {
+                transaction.commit();
+            } else {
+                transaction.rollback();
+            }
+        } finally {
+            entityManagerTracker.close(entityManager);
+        }
+    }
+
+    public void setEntityMapper(EntityMapper<Object, Object> entityMapper) {
+        this.entityMapper = entityMapper;
+    }
+
+    public void setEntityManagerFactory(EntityManagerFactory entityManagerFactory) {
+        this.entityManagerFactory = entityManagerFactory;
+    }
+
+    public void setQueryResultCache(JPAQueryResultCache queryResultCache) {
+        this.queryResultCache = queryResultCache;
+    }
+
+    public void setEntityManagerTracker(JPAEntityManagerTracker entityManagerTracker) {
+        this.entityManagerTracker = entityManagerTracker;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
     }
 }
@@ -15,6 +15,7 @@
  */
 package com.sdl.odata.datasource.jpa;
 
+import com.google.common.base.Strings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -29,6 +30,9 @@ import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
 import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
 
 import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The JPA Datasource configuration.
@@ -60,16 +64,79 @@ public class JPADataSourceConfiguration {
     @Value("${datasource.generateDDL:true}")
     private boolean generateDDL;
 
+    @Value("${datasource.pool.minSize:10}")
+    private int poolMinSize;
+
+    @Value("${datasource.pool.maxSize:100}")
+    private int poolMaxSize;
+
+    @Value("${datasource.pool.connectionTimeout:30000}")
+    private int poolConnectionTimeout;
+
+    @Value("${datasource.pool.idleTimeout:60000}")
+    private int poolIdleTimeout;
+
+    @Value("${datasource.pool.validationQuery:}")
+    private String poolValidationQuery;
+
+    @Value("${datasource.pool.validationInterval:3000}")
+    private long poolValidationInterval;
+
+    @Value("${datasource.pool.leakDetectionThreshold:0}")
+    private int poolLeakDetectionThreshold;
+
+    @Value("${datasource.pool.statementCacheSize:0}")
+    private int poolStatementCacheSize;
+
+    @Value("${datasource.pool.connectionProperties:}")
+    private String poolConnectionProperties;
+
+    @Value("${datasource.jdbc.batchSize:50}")
+    private int jdbcBatchSize;
+
     @Bean
     @Primary
     @ConfigurationProperties(prefix = "datasource.primary")
     public DataSource primaryDataSource() {
         LOG.info("Logging in with user {} and url {}", username, url);
-        return DataSourceBuilder.create()
+        JPAPooledDataSource dataSource = (JPAPooledDataSource) DataSourceBuilder.create()
+                .type(JPAPooledDataSource.class)
                 .url(url)
                 .driverClassName(driver)
                 .username(username)
                 .password(password).build();
+
+        dataSource.setInitialSize(poolMinSize);
+        dataSource.setMinIdle(poolMinSize);
+        dataSource.setMaxIdle(poolMaxSize);
+        dataSource.setMaxActive(poolMaxSize);
+        dataSource.setMaxWait(poolConnectionTimeout);
+        dataSource.setMinEvictableIdleTimeMillis(poolIdleTimeout);
+
+        if (!Strings.isNullOrEmpty(poolValidationQuery)) {
+            dataSource.setValidationQuery(poolValidationQuery);
+            dataSource.setValidationInterval(poolValidationInterval);
+            dataSource.setTestOnBorrow(true);
+        }
+
+        if (poolLeakDetectionThreshold > 0) {
+            // Connections that are borrowed for longer are logged with the stack that borrowed them
+            long suspectTimeout = Math.max(1, TimeUnit.MILLISECONDS.toSeconds(poolLeakDetectionThreshold));
+            dataSource.setSuspectTimeout((int) suspectTimeout);
+            dataSource.setLogAbandoned(true);
+        }
+
+        if (poolStatementCacheSize > 0) {
+            dataSource.setJdbcInterceptors("StatementCache(prepared=true,callable=false,max=" +
+                    poolStatementCacheSize + ")");
+        }
+
+        if (!Strings.isNullOrEmpty(poolConnectionProperties)) {
+            dataSource.setConnectionProperties(poolConnectionProperties);
+        }
+
+        LOG.info("Connection pool of {} to {} connections", poolMinSize, poolMaxSize);
+        return dataSource;
     }
 
     @Bean
@@ -88,6 +155,13 @@ public class JPADataSourceConfiguration {
         localContainerEntityManagerFactoryBean.setDataSource(primaryDataSource());
         localContainerEntityManagerFactoryBean.setJpaVendorAdapter(jpaVendorAdapter());
         localContainerEntityManagerFactoryBean.setPackagesToScan(entityModel);
+
+        // Statements of the same type are ordered and sent to the database in JDBC batches
+        Map<String, Object> jpaProperties = new HashMap<>();
+        jpaProperties.put("hibernate.jdbc.batch_size", jdbcBatchSize);
+        jpaProperties.put("hibernate.order_inserts", true);
+        jpaProperties.put("hibernate.order_updates", true);
+        localContainerEntityManagerFactoryBean.setJpaPropertyMap(jpaProperties);
         localContainerEntityManagerFactoryBean.afterPropertiesSet();
 
         return localContainerEntityManagerFactoryBean;
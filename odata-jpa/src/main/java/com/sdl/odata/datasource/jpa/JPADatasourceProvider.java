@@ -15,33 +15,72 @@
  */
 package com.sdl.odata.datasource.jpa;
 
+import com.google.common.collect.Lists;
 import com.sdl.odata.api.ODataException;
+import com.sdl.odata.api.ODataSystemException;
 import com.sdl.odata.api.edm.model.EntityDataModel;
-import com.sdl.odata.api.mapper.EntityMapper;
+import com.sdl.odata.api.edm.model.MetaType;
+import com.sdl.odata.api.edm.model.StructuralProperty;
+import com.sdl.odata.api.edm.model.Type;
+import com.sdl.odata.api.parser.CustomOption;
+import com.sdl.odata.api.parser.ODataUriUtil;
+import com.sdl.odata.api.parser.QueryOption;
 import com.sdl.odata.api.parser.TargetType;
 import com.sdl.odata.api.processor.datasource.DataSource;
 import com.sdl.odata.api.processor.datasource.DataSourceProvider;
 import com.sdl.odata.api.processor.datasource.ODataDataSourceException;
+import com.sdl.odata.api.processor.query.CountOperation;
 import com.sdl.odata.api.processor.query.QueryOperation;
+import com.sdl.odata.api.processor.query.QueryResult;
 import com.sdl.odata.api.processor.query.strategy.QueryOperationStrategy;
 import com.sdl.odata.api.service.ODataRequestContext;
+import com.sdl.odata.datasource.jpa.mapper.AnnotationJPAEntityMapper;
+import com.sdl.odata.datasource.jpa.mapper.JPAProjectionMapper;
+import com.sdl.odata.datasource.jpa.mapper.JPAResultConverter;
+import com.sdl.odata.datasource.jpa.query.JPAKeyLookup;
 import com.sdl.odata.datasource.jpa.query.JPAQuery;
+import com.sdl.odata.datasource.jpa.query.JPAQueryPlanCache;
+import com.sdl.odata.datasource.jpa.query.JPAQueryResultCache;
 import com.sdl.odata.datasource.jpa.query.JPAQueryStrategyBuilder;
+import com.sdl.odata.datasource.jpa.query.JPASkipToken;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.engine.query.spi.ParameterMetadata;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import javax.persistence.EntityGraph;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceUnitUtil;
 import javax.persistence.Query;
+import javax.persistence.metamodel.Attribute;
 import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.SingularAttribute;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import static com.sdl.odata.api.processor.query.QueryResult.from;
+import static com.sdl.odata.datasource.jpa.query.JPAQuery.convertParameter;
+import static com.sdl.odata.datasource.jpa.util.JPAMetadataUtil.getJPAPropertyName;
+import static com.sdl.odata.datasource.jpa.util.JPAMetadataUtil.isJPAEntity;
+import static com.sdl.odata.datasource.jpa.util.ReflectionUtil.readMember;
+import static com.sdl.odata.util.edm.EntityDataModelUtil.getPropertyValue;
 
 /**
  * @author Renze de Vries
@@ -50,6 +89,8 @@ import static com.sdl.odata.api.processor.query.QueryResult.from;
 public class JPADatasourceProvider implements DataSourceProvider {
     private static final Logger LOG = LoggerFactory.getLogger(JPADatasourceProvider.class);
 
+    private static final String LOAD_GRAPH_HINT = "javax.persistence.loadgraph";
+
     @Autowired
     private EntityManagerFactory entityManagerFactory;
 
@@ -57,10 +98,43 @@ public class JPADatasourceProvider implements DataSourceProvider {
     private JPADataSource jpaDataSource;
 
     @Autowired
-    private EntityMapper<Object, Object> entityMapper;
+    private AnnotationJPAEntityMapper entityMapper;
+
+    @Autowired
+    private JPAProjectionMapper projectionMapper;
+
+    @Autowired
+    private JPAQueryPlanCache queryPlanCache;
 
     @Autowired
-    private ODataProxyProcessor proxyProcessor;
+    private JPAQueryResultCache queryResultCache;
+
+    @Autowired
+    private JPAEntityManagerTracker entityManagerTracker;
+
+    @Value("${datasource.query.streaming:false}")
+    private boolean streaming;
+
+    @Value("${datasource.query.fetchSize:100}")
+    private int fetchSize;
+
+    @Value("${datasource.query.batchExpandSize:500}")
+    private int batchExpandSize;
+
+    @Value("${datasource.query.keysetPaging:false}")
+    private boolean keysetPaging;
+
+    @Value("${datasource.query.skipTokenOption:skiptoken}")
+    private String skipTokenOption;
+
+    @Value("${datasource.query.keyLookup:true}")
+    private boolean keyLookup;
+
+    @Value("${datasource.query.readOnly:true}")
+    private boolean readOnly;
+
+    @Value("${datasource.query.statelessSession:false}")
+    private boolean statelessSession;
 
     /**
      * Check if the given JPA entity class is a valid entity type.
@@ -99,68 +173,460 @@ public class JPADatasourceProvider implements DataSourceProvider {
     }
 
     @Override
-    public QueryOperationStrategy getStrategy(ODataRequestContext requestContext, QueryOperation operation,
+    public QueryOperationStrategy getStrategy(ODataRequestContext requestContext, QueryOperation queryOperation,
                                               TargetType expectedODataEntityType) throws ODataException {
         EntityDataModel entityDataModel = requestContext.getEntityDataModel();
-        final JPAQuery query = new JPAQueryStrategyBuilder(entityDataModel).build(operation);
+        final JPAKeyLookup jpaKeyLookup = keyLookup ?
+                JPAKeyLookup.from(entityDataModel, queryOperation, entityManagerFactory.getMetamodel()) : null;
+        if (jpaKeyLookup != null) {
+            LOG.debug("JPA Key lookup: {}", jpaKeyLookup);
+            return () -> executeKeyLookup(entityDataModel, jpaKeyLookup);
+        }
+
+        // References only need the keys of the entities, which are projected instead of loading the entities
+        final QueryOperation operation = ODataUriUtil.isRefPathUri(requestContext.getUri()) ?
+                JPAQueryStrategyBuilder.selectKeys(entityDataModel, queryOperation) : queryOperation;
+
+        final JPASkipToken skipToken = keysetPaging ? getSkipToken(requestContext) : null;
+        final JPAQuery query = queryPlanCache.getQuery(entityDataModel, operation, keysetPaging, skipToken);
         LOG.debug("JPA Query: {}", query);
 
-        return () -> {
+        final boolean cached = queryResultCache.isEnabled(operation.entitySetName());
+        if (JPAQueryStrategyBuilder.isCountOperation(operation)) {
+            return () -> from(cached ?
+                    queryResultCache.get(query, "count", () -> executeCountQuery(query)) :
+                    executeCountQuery(query));
+        }
 
-            List<Object> result = executeQueryListResult(query);
-            LOG.info("Found: {} items for query: {}", result.size(), query);
+        // The total count of a collection is counted by the database, without the paging of the query
+        final JPAQuery countQuery = expectedODataEntityType.isCollection()
+                && ODataUriUtil.hasCountOption(requestContext.getUri())
+                ? queryPlanCache.getQuery(entityDataModel, new CountOperation(operation, true)) : null;
 
-            return from(convert(entityDataModel, expectedODataEntityType.typeName(), result));
+        final Function<Object, Object> rowMapper = getRowMapper(entityDataModel, expectedODataEntityType, query,
+                requestContext);
+
+        if (cached) {
+            // The count and the skip token are part of the cached result
+            String variant = expectedODataEntityType + "|" + (countQuery != null) + "|" +
+                    (skipToken != null ? skipToken.getOffset() : -1);
+            return () -> queryResultCache.get(query, variant,
+                    () -> executeQuery(query, countQuery, skipToken, rowMapper));
+        }
+
+        return () -> {
+            if (streaming && query.getExpandFields().isEmpty() && query.getBatchExpandFields().isEmpty()) {
+                LOG.debug("Streaming results for query: {}", query);
+                return executeQueryStreamResult(query, countQuery, skipToken, rowMapper);
+            }
+
+            return executeQuery(query, countQuery, skipToken, rowMapper);
         };
     }
 
-    private List<?> convert(EntityDataModel entityDataModel, String expectedType, List<?> jpaEntities) {
-        Class<?> javaType = entityDataModel.getType(expectedType).getJavaType();
+    /**
+     * Finds the entity by its identifier, the expanded properties are loaded by an entity graph. The entity is
+     * converted before the entity manager is closed, so lazy properties that are not expanded are not loaded.
+     */
+    private QueryResult executeKeyLookup(EntityDataModel entityDataModel, JPAKeyLookup jpaKeyLookup) {
+        EntityManager em = createReadOnlyEntityManager();
+        try {
+            Map<String, Object> hints = new HashMap<>();
+            if (!jpaKeyLookup.getExpandProperties().isEmpty()) {
+                EntityGraph<?> entityGraph = em.createEntityGraph(jpaKeyLookup.getEntityClass());
+                entityGraph.addAttributeNodes(jpaKeyLookup.getExpandProperties().toArray(new String[0]));
+                hints.put(LOAD_GRAPH_HINT, entityGraph);
+            }
 
-        return jpaEntities.stream().map(j -> {
-            try {
-                Object unproxied = proxyProcessor.process(j);
-                return entityMapper.convertDSEntityToOData(unproxied, javaType, entityDataModel);
-            } catch (ODataDataSourceException e) {
-                LOG.error("Could not convert entity", e);
-                return null;
+            Object jpaEntity = em.find(jpaKeyLookup.getEntityClass(), jpaKeyLookup.getId(), hints);
+            if (jpaEntity == null) {
+                LOG.info("Found no entity for key lookup: {}", jpaKeyLookup);
+                return from(Collections.emptyList());
             }
-        }).collect(Collectors.toList());
+
+            Object odataEntity = convert(
+                    entityMapper.createResultConverter(jpaKeyLookup.getExpandProperties(), entityDataModel),
+                    jpaKeyLookup.getODataEntityClass(), jpaEntity);
+            StructuralProperty selectProperty = jpaKeyLookup.getSelectProperty();
+            return from(Collections.singletonList(selectProperty != null && odataEntity != null ?
+                    getPropertyValue(selectProperty, odataEntity) : odataEntity));
+        } finally {
+            closeReadOnlyEntityManager(em);
+        }
     }
 
-    private <T> List<T> executeQueryListResult(JPAQuery jpaQuery) {
-        EntityManager em = entityManagerFactory.createEntityManager();
+    private QueryResult executeQuery(JPAQuery query, JPAQuery countQuery, JPASkipToken skipToken,
+                                     Function<Object, Object> rowMapper) {
+        if (statelessSession && query.getExpandFields().isEmpty() && query.getBatchExpandFields().isEmpty()
+                && query.getFetchQueryString() == null) {
+            return executeStatelessQuery(query, countQuery, skipToken, rowMapper);
+        }
 
-        String queryString = jpaQuery.getQueryString();
-        Query query = em.createQuery(queryString);
-        int nrOfResults = jpaQuery.getLimitCount();
-        int startPosition = jpaQuery.getSkipCount();
-        Map<String, Object> queryParams = jpaQuery.getQueryParams();
+        List<Object> result;
+        long count = -1;
+        EntityManager em = createReadOnlyEntityManager();
+        try {
+            result = query.getFetchQueryString() != null ?
+                    executeFetchQuery(em, query, executeQueryListResult(em, query)) :
+                    executeQueryListResult(em, query);
+            loadBatchExpandFields(em, query, result);
+            if (countQuery != null) {
+                count = executeCountQuery(em, countQuery);
+            }
+        } finally {
+            closeReadOnlyEntityManager(em);
+        }
+        LOG.info("Found: {} items for query: {}", result.size(), query);
+
+        return toQueryResult(query, skipToken, rowMapper, result, count);
+    }
 
+    /**
+     * Executes the query in a stateless session, which does not keep the loaded entities in a persistence context.
+     * Lazy associations of the loaded entities can not be initialized.
+     */
+    private QueryResult executeStatelessQuery(JPAQuery query, JPAQuery countQuery, JPASkipToken skipToken,
+                                              Function<Object, Object> rowMapper) {
+        List<Object> result;
+        long count = -1;
+        StatelessSession session = entityManagerFactory.unwrap(SessionFactory.class).openStatelessSession();
         try {
-            if (nrOfResults > 0) {
-                query.setMaxResults(nrOfResults);
+            result = createQuery(session, query).list();
+            if (countQuery != null) {
+                count = ((Number) createQuery(session, countQuery).uniqueResult()).longValue();
+            }
+        } finally {
+            session.close();
+        }
+        LOG.info("Found: {} items for stateless query: {}", result.size(), query);
+
+        return toQueryResult(query, skipToken, rowMapper, result, count);
+    }
+
+    private QueryResult toQueryResult(JPAQuery query, JPASkipToken skipToken, Function<Object, Object> rowMapper,
+                                      List<Object> result, long count) {
+        return toQueryResult(query, skipToken, result.stream().map(rowMapper).collect(Collectors.toList()),
+                result.isEmpty() ? null : result.get(result.size() - 1), count);
+    }
+
+    /**
+     * Creates the query result of the mapped rows, the skip token of the next page is read from the last row of the
+     * query result before it was mapped.
+     */
+    private QueryResult toQueryResult(JPAQuery query, JPASkipToken skipToken, List<Object> rows, Object lastRow,
+                                      long count) {
+        QueryResult queryResult = from(rows);
+        if (count >= 0) {
+            queryResult = queryResult.withCount(count);
+        }
+        String nextSkipToken = getNextSkipToken(query, skipToken, rows.size(), lastRow);
+        return nextSkipToken != null ? queryResult.addMeta(skipTokenOption, nextSkipToken) : queryResult;
+    }
+
+    /**
+     * Reads the skip token from the custom query option, the OData {@code $skiptoken} system query option is
+     * rejected before the query reaches the data source.
+     */
+    private JPASkipToken getSkipToken(ODataRequestContext requestContext) throws ODataException {
+        List<QueryOption> queryOptions = ODataUriUtil.asJavaList(ODataUriUtil.getQueryOptions(requestContext.getUri()));
+        for (QueryOption queryOption : queryOptions) {
+            if (queryOption instanceof CustomOption && ((CustomOption) queryOption).name().equals(skipTokenOption)
+                    && ((CustomOption) queryOption).value().isDefined()) {
+                return JPASkipToken.decode(((CustomOption) queryOption).value().get());
             }
+        }
+
+        return null;
+    }
+
+    /**
+     * Creates the skip token for the page after the given full page of a keyset paged query.
+     */
+    private String getNextSkipToken(JPAQuery query, JPASkipToken skipToken, int size, Object lastRow) {
+        List<String> keysetProperties = query.getKeysetProperties();
+        if (keysetProperties.isEmpty() || size == 0 || lastRow == null || size < query.getLimitCount()) {
+            return null;
+        }
+
+        int offset = (skipToken != null ? skipToken.getOffset() : query.getSkipCount()) + size;
+        List<Object> values = new ArrayList<>();
+        try {
+            EntityType<?> entityType = entityManagerFactory.getMetamodel().entity(lastRow.getClass());
+            for (String keysetProperty : keysetProperties) {
+                values.add(readMember(entityType.getAttribute(keysetProperty).getJavaMember(), lastRow));
+            }
+
+            return new JPASkipToken(offset, values).encode();
+        } catch (IllegalArgumentException | ODataDataSourceException e) {
+            LOG.debug("Unable to keep the ordering values in the skip token, falling back to the offset", e);
+            return new JPASkipToken(offset, new ArrayList<>()).encode();
+        }
+    }
+
+    /**
+     * Gets the function that maps a row of the query result to the expected OData type. Projected rows are mapped
+     * directly, other rows are JPA entities that are mapped with the entity mapper.
+     */
+    private Function<Object, Object> getRowMapper(EntityDataModel entityDataModel, TargetType targetType,
+                                                  JPAQuery query, ODataRequestContext requestContext) {
+        Type type = entityDataModel.getType(targetType.typeName());
+        Class<?> javaType = type.getJavaType();
+        List<String> selectProperties = query.getSelectProperties();
+        if (selectProperties.isEmpty()) {
+            // The query of a strategy is executed once, so the converter is shared by the rows of one result
+            JPAResultConverter converter = entityMapper.createResultConverter(
+                    getExpandProperties(type, requestContext), entityDataModel);
+            return j -> convert(converter, javaType, j);
+        } else if (type.getMetaType() == MetaType.ENTITY) {
+            return row -> project(entityDataModel, javaType, selectProperties, row);
+        }
+
+        // A property value is requested, which is the first selected column
+        return row -> row instanceof Object[] ? ((Object[]) row)[0] : row;
+    }
 
-            if (startPosition > 0) {
-                query.setFirstResult(startPosition);
+    /**
+     * Gets the JPA names of the properties expanded by the request, the other associations of the resulting entities
+     * are not written in the response.
+     */
+    private List<String> getExpandProperties(Type type, ODataRequestContext requestContext) {
+        if (type.getMetaType() != MetaType.ENTITY) {
+            return Collections.emptyList();
+        }
+
+        List<String> expandProperties = new ArrayList<>();
+        for (String propertyName
+                : ODataUriUtil.asJavaList(ODataUriUtil.getSimpleExpandPropertyNames(requestContext.getUri()))) {
+            try {
+                expandProperties.add(getJPAPropertyName((com.sdl.odata.api.edm.model.EntityType) type, propertyName));
+            } catch (ODataSystemException e) {
+                LOG.debug("Expanded property is not a property of: {}", type, e);
             }
+        }
+
+        return expandProperties;
+    }
+
+    private Object project(EntityDataModel entityDataModel, Class<?> javaType, List<String> selectProperties,
+                           Object row) {
+        try {
+            return projectionMapper.convertRowToOData(row, javaType, selectProperties, entityDataModel);
+        } catch (ODataDataSourceException e) {
+            LOG.error("Could not convert projected row", e);
+            return null;
+        }
+    }
+
+    private Object convert(JPAResultConverter converter, Class<?> javaType, Object jpaEntity) {
+        try {
+            return converter.convert(jpaEntity, javaType);
+        } catch (ODataDataSourceException e) {
+            LOG.error("Could not convert entity", e);
+            return null;
+        }
+    }
+
+    private <T> List<T> executeQueryListResult(EntityManager em, JPAQuery jpaQuery) {
+        Query query = em.createQuery(jpaQuery.getQueryString());
+        int nrOfResults = jpaQuery.getLimitCount();
+        int startPosition = jpaQuery.getSkipCount();
+
+        if (nrOfResults > 0) {
+            query.setMaxResults(nrOfResults);
+        }
+
+        if (startPosition > 0) {
+            query.setFirstResult(startPosition);
+        }
+
+        setParameters(query, jpaQuery.getQueryParams());
+
+        return query.getResultList();
+    }
+
+    /**
+     * Fetches the entities with the keys that are selected by the paged query, in chunks. The entities are returned
+     * in the order of the keys, which is the order of the paged query.
+     */
+    private List<Object> executeFetchQuery(EntityManager em, JPAQuery jpaQuery, List<Object> rows) {
+        List<Object> keys = rows.stream()
+                .map(row -> row instanceof Object[] ? ((Object[]) row)[0] : row)
+                .distinct()
+                .collect(Collectors.toList());
+
+        List<Object> entities = new ArrayList<>();
+        for (List<Object> chunk : Lists.partition(keys, batchExpandSize)) {
+            entities.addAll(em.createQuery(jpaQuery.getFetchQueryString())
+                    .setParameter(JPAQuery.FETCH_KEYS_PARAM, chunk)
+                    .getResultList());
+        }
+        LOG.debug("Fetched: {} entities for {} keys", entities.size(), keys.size());
+
+        PersistenceUnitUtil persistenceUnitUtil = entityManagerFactory.getPersistenceUnitUtil();
+        Map<Object, Object> entitiesByKey = new HashMap<>();
+        for (Object entity : entities) {
+            entitiesByKey.put(persistenceUnitUtil.getIdentifier(entity), entity);
+        }
+        List<Object> result = keys.stream()
+                .map(entitiesByKey::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+
+        // The key of the entity data model is not the identifier of the JPA entity, the order can not be restored
+        return result.size() == entities.size() ? result : entities;
+    }
 
-            for (Map.Entry<String, Object> entry : queryParams.entrySet()) {
-                query.setParameter(entry.getKey(), tryConvert(entry.getValue()));
+    /**
+     * Loads the expanded collections of the given entities with a query per collection, the entities are selected by
+     * their identifiers in chunks. The collections are initialized on the entities that are already loaded in the
+     * persistence context of the entity manager.
+     */
+    private void loadBatchExpandFields(EntityManager em, JPAQuery jpaQuery, List<Object> result) {
+        if (jpaQuery.getBatchExpandFields().isEmpty() || result.isEmpty() || !isJPAEntity(result.get(0))) {
+            return;
+        }
+
+        EntityType<?> entityType = entityManagerFactory.getMetamodel().entity(result.get(0).getClass());
+        while (entityType.getSupertype() instanceof EntityType) {
+            entityType = (EntityType<?>) entityType.getSupertype();
+        }
+
+        // Entities with a composite identifier are selected by the entities themselves
+        Optional<String> idName = entityType.hasSingleIdAttribute() ? entityType.getSingularAttributes().stream()
+                .filter(SingularAttribute::isId).map(Attribute::getName).findFirst() : Optional.empty();
+        PersistenceUnitUtil persistenceUnitUtil = entityManagerFactory.getPersistenceUnitUtil();
+        List<Object> params = result.stream()
+                .map(e -> idName.isPresent() ? persistenceUnitUtil.getIdentifier(e) : e)
+                .distinct()
+                .collect(Collectors.toList());
+        String condition = idName.map(name -> "p." + name).orElse("p") + " IN (:ids)";
+
+        for (String batchExpandField : jpaQuery.getBatchExpandFields()) {
+            String queryString = "SELECT DISTINCT p FROM " + entityType.getName() + " p LEFT JOIN FETCH p." +
+                    batchExpandField.substring(batchExpandField.indexOf('.') + 1) + " WHERE " + condition;
+            for (List<Object> chunk : Lists.partition(params, batchExpandSize)) {
+                em.createQuery(queryString).setParameter("ids", chunk).getResultList();
             }
+            LOG.debug("Loaded expanded field: {} of {} entities", batchExpandField, params.size());
+        }
+    }
 
-            return query.getResultList();
+    private long executeCountQuery(JPAQuery jpaQuery) {
+        EntityManager em = createReadOnlyEntityManager();
+        try {
+            return executeCountQuery(em, jpaQuery);
         } finally {
-            em.close();
+            closeReadOnlyEntityManager(em);
+        }
+    }
+
+    private long executeCountQuery(EntityManager em, JPAQuery jpaQuery) {
+        Query query = em.createQuery(jpaQuery.getQueryString());
+        setParameters(query, jpaQuery.getQueryParams());
+
+        long count = ((Number) query.getSingleResult()).longValue();
+        LOG.debug("Counted: {} items for query: {}", count, jpaQuery);
+        return count;
+    }
+
+    private void setParameters(Query query, Map<String, Object> queryParams) {
+        for (Map.Entry<String, Object> entry : queryParams.entrySet()) {
+            query.setParameter(entry.getKey(), convertParameter(entry.getValue(),
+                    query.getParameter(entry.getKey()).getParameterType()));
         }
     }
 
-    private Object tryConvert(Object parameterType) {
-        if (parameterType instanceof scala.math.BigDecimal) {
-            return ((scala.math.BigDecimal) parameterType).intValue();
+    /**
+     * Executes the query as a forward only scrollable result. Every row is mapped and evicted from the persistence
+     * context as soon as it is read, so neither the persistence context nor the JDBC driver holds the JPA entities of
+     * the whole result. The result is read completely before the entity manager is released, because the renderer
+     * asks for the size of the result before it writes the first entity. The skip token of the next page is read
+     * from the last row before it is evicted.
+     */
+    private QueryResult executeQueryStreamResult(JPAQuery jpaQuery, JPAQuery countQuery, JPASkipToken skipToken,
+                                                 Function<Object, Object> rowMapper) {
+        List<Object> result = new ArrayList<>();
+        Object lastRow = null;
+        long count = -1;
+        EntityManager em = createReadOnlyEntityManager();
+        try {
+            Session session = em.unwrap(Session.class);
+            org.hibernate.Query query = session.createQuery(jpaQuery.getQueryString());
+            query.setFetchSize(fetchSize);
+            setPaging(query, jpaQuery);
+            setParameters(query, jpaQuery.getQueryParams());
+
+            ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
+            try {
+                while (results.next()) {
+                    Object[] row = results.get();
+                    Object value = row.length == 1 ? row[0] : row;
+                    result.add(rowMapper.apply(value));
+                    lastRow = value;
+                    if (value != null && isJPAEntity(value)) {
+                        session.evict(value);
+                    }
+                }
+            } finally {
+                results.close();
+            }
+            if (countQuery != null) {
+                count = executeCountQuery(em, countQuery);
+            }
+        } finally {
+            closeReadOnlyEntityManager(em);
         }
+        LOG.info("Streamed: {} items for query: {}", result.size(), jpaQuery);
+
+        return toQueryResult(jpaQuery, skipToken, result, lastRow, count);
+    }
+
+    private org.hibernate.Query createQuery(StatelessSession session, JPAQuery jpaQuery) {
+        org.hibernate.Query query = session.createQuery(jpaQuery.getQueryString());
+        query.setReadOnly(true);
+        setPaging(query, jpaQuery);
+        setParameters(query, jpaQuery.getQueryParams());
+        return query;
+    }
+
+    private void setPaging(org.hibernate.Query query, JPAQuery jpaQuery) {
+        if (jpaQuery.getLimitCount() > 0) {
+            query.setMaxResults(jpaQuery.getLimitCount());
+        }
+
+        if (jpaQuery.getSkipCount() > 0) {
+            query.setFirstResult(jpaQuery.getSkipCount());
+        }
+    }
+
+    /**
+     * Sets the parameters of a Hibernate query, the expected types of the parameters are taken from the cached plan
+     * of the query, like the parameters of a JPA query.
+     */
+    private void setParameters(org.hibernate.Query query, Map<String, Object> queryParams) {
+        if (queryParams.isEmpty()) {
+            return;
+        }
+
+        ParameterMetadata parameterMetadata = entityManagerFactory.unwrap(SessionFactoryImplementor.class)
+                .getQueryPlanCache()
+                .getHQLQueryPlan(query.getQueryString(), false, Collections.emptyMap())
+                .getParameterMetadata();
+        for (Map.Entry<String, Object> entry : queryParams.entrySet()) {
+            org.hibernate.type.Type type = parameterMetadata.getNamedParameterExpectedType(entry.getKey());
+            query.setParameter(entry.getKey(), convertParameter(entry.getValue(),
+                    type != null ? type.getReturnedClass() : null));
+        }
+    }
+
+    /**
+     * Creates an entity manager for reading, in read only mode with a read only session.
+     */
+    private EntityManager createReadOnlyEntityManager() {
+        return readOnly ? entityManagerTracker.openReadOnly() : entityManagerTracker.open();
+    }
 
-        return parameterType;
+    private void closeReadOnlyEntityManager(EntityManager em) {
+        entityManagerTracker.closeReadOnly(em);
     }
 }
@@ -0,0 +1,200 @@
+/**
+ * Copyright (c) 2016 All Rights Reserved by the SDL Group.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sdl.odata.datasource.jpa;
+
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates and closes the entity managers of the data source, and keeps track of the entity managers that are open.
+ * With leak detection enabled the allocation stack of every entity manager is recorded, and entity managers that are
+ * open for longer than the leak detection threshold are logged with the stack that created them.
+ */
+@Component
+public class JPAEntityManagerTracker {
+    private static final Logger LOG = LoggerFactory.getLogger(JPAEntityManagerTracker.class);
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Value("${datasource.entityManager.leakDetectionThreshold:0}")
+    private long leakDetectionThreshold;
+
+    private final Map<EntityManager, Allocation> openEntityManagers = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService leakDetector;
+
+    @PostConstruct
+    public void init() {
+        if (leakDetectionThreshold > 0) {
+            leakDetector = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "jpa-entity-manager-leak-detector");
+                thread.setDaemon(true);
+                return thread;
+            });
+            leakDetector.scheduleWithFixedDelay(this::detectLeaks, leakDetectionThreshold, leakDetectionThreshold,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (leakDetector != null) {
+            leakDetector.shutdownNow();
+        }
+    }
+
+    /**
+     * Creates a new entity manager, which must be closed with {@link #close(EntityManager)}.
+     * @return The entity manager
+     */
+    public EntityManager open() {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        openEntityManagers.put(entityManager, new Allocation(System.currentTimeMillis(),
+                leakDetectionThreshold > 0 ? new Throwable("Entity manager allocated here") : null));
+        return entityManager;
+    }
+
+    /**
+     * Creates a new entity manager for reading, which must be closed with {@link #closeReadOnly(EntityManager)}.
+     * The loaded entities are read only, so Hibernate keeps no snapshots of them for dirty checking, and the session
+     * is never flushed. The reads run in a transaction that holds one connection until it is rolled back. The read
+     * only flag of the JDBC connection is not changed, because the connection is released to the pool when the
+     * transaction ends and it would be borrowed by a write while it is still read only.
+     * @return The entity manager
+     */
+    public EntityManager openReadOnly() {
+        EntityManager entityManager = open();
+        try {
+            Session session = entityManager.unwrap(Session.class);
+            session.setDefaultReadOnly(true);
+            session.setFlushMode(FlushMode.MANUAL);
+            entityManager.getTransaction().begin();
+        } catch (RuntimeException e) {
+            close(entityManager);
+            throw e;
+        }
+        return entityManager;
+    }
+
+    /**
+     * Rolls back the read transaction, if it is active, and closes the entity manager.
+     * @param entityManager The entity manager that was created by {@link #openReadOnly()} or {@link #open()}
+     */
+    public void closeReadOnly(EntityManager entityManager) {
+        try {
+            if (entityManager.isOpen() && entityManager.getTransaction().isActive()) {
+                entityManager.getTransaction().rollback();
+            }
+        } finally {
+            close(entityManager);
+        }
+    }
+
+    /**
+     * Closes the entity manager, if it is still open.
+     * @param entityManager The entity manager that was created by {@link #open()}
+     */
+    public void close(EntityManager entityManager) {
+        Allocation allocation = openEntityManagers.remove(entityManager);
+        if (allocation != null && allocation.reported) {
+            LOG.info("Leaked entity manager was closed after {} ms",
+                    System.currentTimeMillis() - allocation.timestamp);
+        }
+        if (entityManager.isOpen()) {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * Logs the entity managers that are open for longer than the leak detection threshold, every entity manager is
+     * reported once.
+     */
+    void detectLeaks() {
+        long now = System.currentTimeMillis();
+        for (Allocation allocation : openEntityManagers.values()) {
+            if (!allocation.reported && now - allocation.timestamp > leakDetectionThreshold) {
+                allocation.reported = true;
+                LOG.warn("Entity manager is open for {} ms, it may have leaked", now - allocation.timestamp,
+                        allocation.stack);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of entity managers that are open.
+     * @return The number of open entity managers
+     */
+    public int getOpenCount() {
+        return openEntityManagers.size();
+    }
+
+    /**
+     * Gets the number of open entity managers that have no active transaction.
+     * @return The number of idle entity managers
+     */
+    public int getIdleCount() {
+        int idle = 0;
+        for (EntityManager entityManager : openEntityManagers.keySet()) {
+            try {
+                if (entityManager.isOpen() && !entityManager.getTransaction().isActive()) {
+                    idle++;
+                }
+            } catch (IllegalStateException e) {
+                // Closed concurrently
+                LOG.trace("Entity manager was closed while counting", e);
+            }
+        }
+        return idle;
+    }
+
+    public void setEntityManagerFactory(EntityManagerFactory entityManagerFactory) {
+        this.entityManagerFactory = entityManagerFactory;
+    }
+
+    public void setLeakDetectionThreshold(long leakDetectionThreshold) {
+        this.leakDetectionThreshold = leakDetectionThreshold;
+    }
+
+    /**
+     * The moment and the stack at which an entity manager was created.
+     */
+    private static final class Allocation {
+        private final long timestamp;
+        private final Throwable stack;
+        private volatile boolean reported;
+
+        private Allocation(long timestamp, Throwable stack) {
+            this.timestamp = timestamp;
+            this.stack = stack;
+        }
+    }
+}
@@ -17,7 +17,9 @@ package com.sdl.odata.datasource.jpa;
 
 import com.sdl.odata.api.processor.datasource.ODataDataSourceException;
 import com.sdl.odata.datasource.jpa.builders.EntityBuilder;
+import com.sdl.odata.datasource.jpa.builders.MapperBuilder;
 import com.sdl.odata.datasource.jpa.builders.TransformContext;
+import com.sdl.odata.datasource.jpa.exceptions.JPADataMappingException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -49,9 +51,24 @@ public class JPAODataEntityGeneratorImpl implements JPAODataEntityGenerator {
             odataEntities.add(odataEntity);
         }
 
+        // The mappers refer to the OData classes of their navigation properties, so all of them must exist first
+        for (int i = 0; i < jpaEntities.size(); i++) {
+            generateMapper(jpaEntities.get(i), odataEntities.get(i));
+        }
+
         return odataEntities;
     }
 
+    private void generateMapper(Class<?> jpaEntity, Class<?> odataEntity) {
+        try {
+            Class<?> mapper = new MapperBuilder(jpaEntity, odataEntity).build();
+            LOG.info("Generated a mapper: {}", mapper.getName());
+        } catch (JPADataMappingException e) {
+            LOG.warn("Unable to generate a mapper for JPA Entity: {}, it will be mapped using reflection",
+                    jpaEntity.getName(), e);
+        }
+    }
+
     public void setOdataNamespace(String odataNamespace) {
         this.odataNamespace = odataNamespace;
     }
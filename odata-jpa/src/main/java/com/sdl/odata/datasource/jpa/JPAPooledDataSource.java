@@ -0,0 +1,93 @@
+/**
+ * Copyright (c) 2016 All Rights Reserved by the SDL Group.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sdl.odata.datasource.jpa;
+
+import org.apache.tomcat.jdbc.pool.DataSource;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The Tomcat JDBC connection pool of the data source, which also measures how long callers wait for a connection.
+ * Together with the active, idle and waiting connection counts of the pool these are the gauges of the pool.
+ */
+public class JPAPooledDataSource extends DataSource {
+
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return super.getConnection();
+        } finally {
+            recordWait(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return super.getConnection(username, password);
+        } finally {
+            recordWait(System.nanoTime() - start);
+        }
+    }
+
+    private void recordWait(long waitNanos) {
+        borrowCount.incrementAndGet();
+        totalWaitNanos.addAndGet(waitNanos);
+        maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    }
+
+    /**
+     * Gets the number of connections that have been borrowed from the pool.
+     * @return The number of borrowed connections
+     */
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+    /**
+     * Gets the average time a caller waited for a connection, including the time to open new connections.
+     * @return The average wait time in milliseconds
+     */
+    public double getAverageWaitTime() {
+        long count = borrowCount.get();
+        return count > 0 ? (double) totalWaitNanos.get() / count / TimeUnit.MILLISECONDS.toNanos(1) : 0;
+    }
+
+    /**
+     * Gets the longest time a caller waited for a connection.
+     * @return The maximum wait time in milliseconds
+     */
+    public long getMaxWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+    }
+
+    /**
+     * Gets the number of callers that are waiting for a connection.
+     * @return The number of pending callers
+     */
+    public int getPendingCount() {
+        return getWaitCount();
+    }
+}
@@ -16,50 +16,149 @@
 package com.sdl.odata.datasource.jpa;
 
 import com.sdl.odata.api.processor.datasource.TransactionalDataSource;
-import org.springframework.context.annotation.Scope;
-import org.springframework.stereotype.Component;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import javax.annotation.PostConstruct;
 import javax.persistence.EntityManager;
+import javax.persistence.FlushModeType;
+import javax.persistence.Query;
 import javax.persistence.EntityTransaction;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 /**
  * This is the transactionable datasource that allows running a longer transaction across operations.
+ * <p>
+ * The operations of the transaction share one persistence context, which is flushed once when the transaction is
+ * committed. Hibernate then orders the inserts and updates per entity type and sends them in JDBC batches of
+ * {@code datasource.jdbc.batchSize} statements.
  * @author Renze de Vries
  */
-@Component
-@Scope("prototype")
 public class JPATransactionDataSource extends JPADataSource implements TransactionalDataSource {
 
+    private static final Logger LOG = LoggerFactory.getLogger(JPATransactionDataSource.class);
+
     private EntityManager entityManager;
 
     private EntityTransaction entityTransaction;
 
-    @PostConstruct
+    private final Set<String> writtenCollectionNames = new LinkedHashSet<>();
+
+    private boolean ended;
+
+    /**
+     * Creates a transaction that shares the collaborators and the settings of the given data source.
+     * @param dataSource The data source that starts the transaction
+     */
+    JPATransactionDataSource(JPADataSource dataSource) {
+        super(dataSource);
+    }
+
+    /**
+     * Opens the entity manager and begins the transaction. This is done on the first operation of the transaction,
+     * so that no entity manager is opened for instances that are never used.
+     */
     public void initializeTransaction() {
-        entityManager = getEntityManagerFactory().createEntityManager();
+        entityManager = getEntityManagerTracker().open();
+        entityManager.setFlushMode(FlushModeType.COMMIT);
         entityTransaction = entityManager.getTransaction();
         entityTransaction.begin();
     }
 
     @Override
     public boolean isActive() {
-        return entityManager.isOpen();
+        return !ended && (entityManager == null || entityManager.isOpen());
     }
 
     @Override
     public boolean commit() {
-        entityTransaction.commit();
+        ended = true;
+        if (entityManager == null) {
+            return true;
+        }
+
+        try {
+            entityManager.flush();
+            entityTransaction.commit();
+        } catch (RuntimeException e) {
+            LOG.error("Could not commit transaction", e);
+            if (entityTransaction.isActive()) {
+                entityTransaction.rollback();
+            }
+            writtenCollectionNames.clear();
+            throw e;
+        } finally {
+            getEntityManagerTracker().close(entityManager);
+            getQueryResultCache().invalidate(writtenCollectionNames);
+            writtenCollectionNames.clear();
+        }
         return true;
     }
 
     @Override
     public void rollback() {
-        entityTransaction.rollback();
+        ended = true;
+        if (entityManager == null || !entityManager.isOpen()) {
+            return;
+        }
+
+        try {
+            entityTransaction.rollback();
+        } finally {
+            getEntityManagerTracker().close(entityManager);
+            writtenCollectionNames.clear();
+        }
+    }
+
+    /**
+     * The cached query results are invalidated when the transaction is committed, the written entities are not
+     * visible to other entity managers before.
+     */
+    @Override
+    protected void invalidateQueryResults(Collection<String> collectionNames) {
+        writtenCollectionNames.addAll(collectionNames);
     }
 
     @Override
     protected EntityManager getEntityManager() {
+        if (entityManager == null) {
+            initializeTransaction();
+        }
         return entityManager;
     }
+
+    /**
+     * Updates are merged into the shared persistence context, so they are flushed in the JDBC batches of the commit
+     * instead of flushing the transaction for a statement per update.
+     */
+    @Override
+    protected boolean isStatementUpdate() {
+        return false;
+    }
+
+    /**
+     * The changes of the previous operations are flushed before a statement is executed, so that the statement sees
+     * them.
+     */
+    @Override
+    protected int executeStatement(EntityManager em, Query statement) {
+        em.flush();
+        return super.executeStatement(em, statement);
+    }
+
+    /**
+     * The operations join the transaction, which is begun when the entity manager is opened.
+     */
+    @Override
+    protected void beginOperation(EntityManager em) {
+    }
+
+    /**
+     * The operations are not flushed, the entity manager is shared by the operations of the transaction and it is
+     * flushed and closed when the transaction ends.
+     */
+    @Override
+    protected void endOperation(EntityManager em) {
+    }
 }
@@ -0,0 +1,236 @@
+/**
+ * Copyright (c) 2016 All Rights Reserved by the SDL Group.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sdl.odata.datasource.jpa.builders;
+
+import com.google.common.base.Strings;
+import com.sdl.odata.api.edm.annotations.EdmNavigationProperty;
+import com.sdl.odata.datasource.jpa.ODataJPAProperty;
+import com.sdl.odata.datasource.jpa.exceptions.JPADataMappingException;
+import com.sdl.odata.datasource.jpa.mapper.JPAGeneratedMapper;
+import javassist.CannotCompileException;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtNewMethod;
+import javassist.NotFoundException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates the {@link JPAGeneratedMapper} of a generated OData entity class and its JPA entity class. The mapper
+ * is generated in the package of the OData entity so it can access its fields directly, the JPA entity is accessed
+ * through its public property accessors.
+ */
+public class MapperBuilder {
+    private static final Logger LOG = LoggerFactory.getLogger(MapperBuilder.class);
+
+    private final ClassPool pool = ClassPool.getDefault();
+
+    private final Class<?> jpaType;
+    private final Class<?> odataType;
+
+    public MapperBuilder(Class<?> jpaType, Class<?> odataType) {
+        this.jpaType = jpaType;
+        this.odataType = odataType;
+    }
+
+    public Class<?> build() throws JPADataMappingException {
+        checkPublic(jpaType);
+
+        StringBuilder toJPA = new StringBuilder();
+        StringBuilder toOData = new StringBuilder();
+        Map<String, PropertyDescriptor> jpaProperties = getJPAProperties();
+        for (Field field : odataType.getDeclaredFields()) {
+            ODataJPAProperty jpaPropertyAnno = field.getAnnotation(ODataJPAProperty.class);
+            if (jpaPropertyAnno == null) {
+                continue;
+            }
+
+            String jpaFieldName = Strings.isNullOrEmpty(jpaPropertyAnno.value()) ? field.getName()
+                    : jpaPropertyAnno.value();
+            PropertyDescriptor jpaProperty = jpaProperties.get(jpaFieldName);
+            if (jpaProperty == null || jpaProperty.getReadMethod() == null || jpaProperty.getWriteMethod() == null) {
+                throw new JPADataMappingException("No public accessors for property: " + jpaFieldName
+                        + " of JPA entity: " + jpaType.getName());
+            }
+
+            if (field.getAnnotation(EdmNavigationProperty.class) != null) {
+                appendNavigationProperty(toJPA, toOData, field, jpaProperty);
+            } else {
+                appendProperty(toJPA, toOData, field, jpaProperty);
+            }
+        }
+
+        String mapperName = odataType.getName() + JPAGeneratedMapper.CLASS_SUFFIX;
+        try {
+            CtClass mapperClass = pool.makeClass(mapperName);
+            mapperClass.addInterface(pool.get(JPAGeneratedMapper.class.getName()));
+            addMethod(mapperClass, "public Object newJPAEntity() { return new " + getSourceName(jpaType) + "(); }");
+            addMethod(mapperClass, "public Object newODataEntity() { return new " + getSourceName(odataType)
+                    + "(); }");
+            addMethod(mapperClass, buildCopyMethod("copyToJPA", odataType, jpaType, toJPA));
+            addMethod(mapperClass, buildCopyMethod("copyToOData", jpaType, odataType, toOData));
+
+            Class<?> mapper = mapperClass.toClass(odataType.getClassLoader(), odataType.getProtectionDomain());
+            LOG.debug("Generated mapper class: {}", mapper);
+
+            return mapper;
+        } catch (NotFoundException | CannotCompileException e) {
+            throw new JPADataMappingException("Unable to generate mapper for JPA entity class: " + jpaType.getName(),
+                    e);
+        }
+    }
+
+    private void appendProperty(StringBuilder toJPA, StringBuilder toOData, Field field,
+                                PropertyDescriptor jpaProperty) {
+        if (!field.getType().equals(jpaProperty.getPropertyType())) {
+            throw new JPADataMappingException("Type of property: " + jpaProperty.getName()
+                    + " differs from the type of the JPA property");
+        }
+
+        toJPA.append("t.").append(jpaProperty.getWriteMethod().getName())
+                .append("(s.").append(field.getName()).append(");\n");
+        if (Collection.class.isAssignableFrom(field.getType())) {
+            // The values are copied, so that a lazy collection is not read after its entity manager is closed
+            toOData.append("t.").append(field.getName()).append(" = (").append(getSourceName(field.getType()))
+                    .append(") $3.toODataValues(s.").append(jpaProperty.getReadMethod().getName()).append("(), new ")
+                    .append(getCollectionImplementation(field.getType()).getName()).append("());\n");
+        } else {
+            toOData.append("t.").append(field.getName()).append(" = s.")
+                    .append(jpaProperty.getReadMethod().getName()).append("();\n");
+        }
+    }
+
+    private void appendNavigationProperty(StringBuilder toJPA, StringBuilder toOData, Field field,
+                                          PropertyDescriptor jpaProperty) {
+        String fieldType = getSourceName(field.getType());
+        String jpaPropertyType = getSourceName(jpaProperty.getPropertyType());
+        String setter = jpaProperty.getWriteMethod().getName();
+        String getter = jpaProperty.getReadMethod().getName();
+        String expandedCheck = "if ($3.isExpanded(\"" + jpaProperty.getName() + "\")) ";
+
+        if (Collection.class.isAssignableFrom(field.getType())) {
+            String collection = "new " + getCollectionImplementation(field.getType()).getName() + "()";
+            String elementType = getSourceName(getCollectionElementType(field.getGenericType()));
+
+            toJPA.append("t.").append(setter).append("((").append(jpaPropertyType)
+                    .append(") $3.toJPACollection(s.").append(field.getName()).append(", ").append(collection)
+                    .append("));\n");
+            toOData.append(expandedCheck).append("t.").append(field.getName()).append(" = (").append(fieldType)
+                    .append(") $3.toODataCollection(s.").append(getter).append("(), ").append(elementType)
+                    .append(".class, ").append(collection).append(");\n");
+        } else {
+            toJPA.append("t.").append(setter).append("((").append(jpaPropertyType)
+                    .append(") $3.toJPA(s.").append(field.getName()).append("));\n");
+            toOData.append(expandedCheck).append("t.").append(field.getName()).append(" = (").append(fieldType)
+                    .append(") $3.toOData(s.").append(getter).append("(), ").append(fieldType).append(".class);\n");
+        }
+    }
+
+    private Map<String, PropertyDescriptor> getJPAProperties() {
+        try {
+            BeanInfo beanInfo = Introspector.getBeanInfo(jpaType);
+            Map<String, PropertyDescriptor> properties = new HashMap<>();
+            for (PropertyDescriptor propertyDescriptor : beanInfo.getPropertyDescriptors()) {
+                if (isPublic(propertyDescriptor.getReadMethod()) && isPublic(propertyDescriptor.getWriteMethod())) {
+                    properties.put(propertyDescriptor.getName(), propertyDescriptor);
+                }
+            }
+
+            return properties;
+        } catch (IntrospectionException e) {
+            throw new JPADataMappingException("Unable to read bean information of: " + jpaType.getName(), e);
+        }
+    }
+
+    private static String buildCopyMethod(String name, Class<?> sourceType, Class<?> targetType,
+                                          StringBuilder body) {
+        return "public void " + name + "(Object source, Object target, "
+                + "com.sdl.odata.datasource.jpa.mapper.JPAMappingContext context) "
+                + "throws com.sdl.odata.api.processor.datasource.ODataDataSourceException {\n"
+                + getSourceName(sourceType) + " s = (" + getSourceName(sourceType) + ") $1;\n"
+                + getSourceName(targetType) + " t = (" + getSourceName(targetType) + ") $2;\n"
+                + body + "}";
+    }
+
+    private static void addMethod(CtClass mapperClass, String source) throws CannotCompileException {
+        LOG.trace("Generating mapper method: {}", source);
+        mapperClass.addMethod(CtNewMethod.make(source, mapperClass));
+    }
+
+    private static void checkPublic(Class<?> type) {
+        try {
+            if (!Modifier.isPublic(type.getModifiers()) || !Modifier.isPublic(type.getConstructor().getModifiers())) {
+                throw new JPADataMappingException("Class is not public: " + type.getName());
+            }
+        } catch (NoSuchMethodException e) {
+            throw new JPADataMappingException("No public default constructor in class: " + type.getName(), e);
+        }
+    }
+
+    private static boolean isPublic(Method method) {
+        return method != null && Modifier.isPublic(method.getModifiers())
+                && Modifier.isPublic(method.getDeclaringClass().getModifiers());
+    }
+
+    private static Class<?> getCollectionImplementation(Class<?> collectionType) {
+        if (collectionType.isAssignableFrom(ArrayList.class) && List.class.isAssignableFrom(collectionType)) {
+            return ArrayList.class;
+        } else if (collectionType.isAssignableFrom(HashSet.class) && Set.class.isAssignableFrom(collectionType)) {
+            return HashSet.class;
+        }
+
+        throw new JPADataMappingException("Unsupported collection type: " + collectionType.getName());
+    }
+
+    private static Class<?> getCollectionElementType(Type genericType) {
+        if (genericType instanceof ParameterizedType) {
+            Type[] actualTypeArguments = ((ParameterizedType) genericType).getActualTypeArguments();
+            if (actualTypeArguments.length > 0 && actualTypeArguments[0] instanceof Class) {
+                return (Class<?>) actualTypeArguments[0];
+            }
+        }
+
+        throw new JPADataMappingException("The element type of this collection type cannot be determined: "
+                + genericType);
+    }
+
+    private static String getSourceName(Class<?> type) {
+        if (type.isArray()) {
+            return getSourceName(type.getComponentType()) + "[]";
+        } else if (type.isMemberClass()) {
+            throw new JPADataMappingException("Nested classes are not supported: " + type.getName());
+        }
+
+        return type.getName();
+    }
+}
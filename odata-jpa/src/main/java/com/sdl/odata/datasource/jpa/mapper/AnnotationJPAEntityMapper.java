@@ -16,36 +16,31 @@
 package com.sdl.odata.datasource.jpa.mapper;
 
 import com.sdl.odata.api.edm.model.EntityDataModel;
-import com.sdl.odata.api.edm.model.StructuralProperty;
-import com.sdl.odata.api.edm.model.StructuredType;
 import com.sdl.odata.api.mapper.EntityMapper;
 import com.sdl.odata.api.processor.datasource.ODataDataSourceException;
 import com.sdl.odata.datasource.jpa.ODataJPAEntity;
+import org.hibernate.Hibernate;
+import org.hibernate.proxy.HibernateProxy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static com.sdl.odata.util.AnnotationsUtil.checkAnnotationPresent;
 import static com.sdl.odata.util.AnnotationsUtil.getAnnotation;
 import static com.sdl.odata.util.edm.EntityDataModelUtil.createPropertyCollection;
-import static com.sdl.odata.util.edm.EntityDataModelUtil.getPropertyType;
-import static com.sdl.odata.util.edm.EntityDataModelUtil.getPropertyValue;
-import static com.sdl.odata.util.edm.EntityDataModelUtil.isStructuredType;
-import static com.sdl.odata.util.edm.EntityDataModelUtil.setPropertyValue;
-import static com.sdl.odata.util.edm.EntityDataModelUtil.visitProperties;
-import static com.sdl.odata.datasource.jpa.util.ReflectionUtil.getField;
-import static com.sdl.odata.datasource.jpa.util.ReflectionUtil.newInstance;
-import static com.sdl.odata.datasource.jpa.util.ReflectionUtil.readField;
-import static com.sdl.odata.datasource.jpa.util.ReflectionUtil.writeField;
+import static com.sdl.odata.datasource.jpa.util.ReflectionUtil.newClass;
 
 /**
  * Implementation of {@link EntityMapper} that converts between OData entities
- * and entities having the JPA annotations.
+ * and entities having the JPA annotations. The fields to copy are resolved once per pair of classes into a
+ * {@link JPAMappingPlan}, which uses the {@link JPAGeneratedMapper} of the pair when one was generated together
+ * with the OData class.
  *
  * @author Renze de Vries
  */
@@ -54,115 +49,272 @@ import static com.sdl.odata.datasource.jpa.util.ReflectionUtil.writeField;
 public class AnnotationJPAEntityMapper implements EntityMapper<Object, Object> {
     private static final Logger LOG = LoggerFactory.getLogger(AnnotationJPAEntityMapper.class);
 
+    private final Map<Class<?>, JPAMappingPlan> odataPlans = new ConcurrentHashMap<>();
+    private final Map<Class<?>, Map<Class<?>, JPAMappingPlan>> jpaPlans = new ConcurrentHashMap<>();
+
     @Override
     public Object convertODataEntityToDS(Object odataEntity, EntityDataModel entityDataModel)
             throws ODataDataSourceException {
-        return odataEntityToJPA(odataEntity, entityDataModel, new HashMap<>());
+        return new ConversionContext(entityDataModel, null).toJPA(odataEntity);
+    }
+
+    @Override
+    public <T> T convertDSEntityToOData(Object jpaEntity, Class<T> odataEntityClass, EntityDataModel entityDataModel)
+            throws ODataDataSourceException {
+        return odataEntityClass.cast(new ConversionContext(entityDataModel, null).toOData(jpaEntity, odataEntityClass));
+    }
+
+    /**
+     * Converts a JPA entity to an OData entity, of which only the expanded navigation properties are mapped. The
+     * navigation properties of the entities it refers to are not mapped.
+     * @param jpaEntity The JPA entity or a Hibernate proxy of it
+     * @param odataEntityClass The OData entity class
+     * @param expandProperties The names of the expanded JPA properties of the entity
+     * @param entityDataModel The entity data model
+     * @param <T> The OData entity type
+     * @return The OData entity, or {@code null} if the JPA entity is a proxy that was not loaded
+     * @throws ODataDataSourceException If unable to convert the entity
+     */
+    public <T> T convertDSEntityToOData(Object jpaEntity, Class<T> odataEntityClass,
+                                        Collection<String> expandProperties, EntityDataModel entityDataModel)
+            throws ODataDataSourceException {
+        return createResultConverter(expandProperties, entityDataModel).convert(jpaEntity, odataEntityClass);
     }
 
+    /**
+     * Creates the converter of the JPA entities of one query result, of which only the expanded navigation
+     * properties are mapped. The converter keeps the mapped entities until it is discarded, so it must not outlive
+     * the query result, and it can not be used concurrently.
+     * @param expandProperties The names of the expanded JPA properties of the entities of the result
+     * @param entityDataModel The entity data model
+     * @return The result converter
+     */
+    public JPAResultConverter createResultConverter(Collection<String> expandProperties,
+                                                    EntityDataModel entityDataModel) {
+        return new ConversionContext(entityDataModel, expandProperties);
+    }
 
-    private Object odataEntityToJPA(final Object odataEntity, final EntityDataModel entityDataModel,
-                                    final Map<Object, Object> visitedEntities)
+    /**
+     * Gets the mapping plan of an OData class to the JPA class named in its {@link ODataJPAEntity} annotation.
+     */
+    private JPAMappingPlan getODataPlan(Class<?> odataClass, EntityDataModel entityDataModel)
             throws ODataDataSourceException {
-        // If we already have entity in map, then it is a cyclic link, just return stored entity
-        if (visitedEntities.containsKey(odataEntity)) {
-            return visitedEntities.get(odataEntity);
+        JPAMappingPlan plan = odataPlans.get(odataClass);
+        if (plan == null) {
+            ODataJPAEntity jpaEntityAnno = getAnnotation(odataClass, ODataJPAEntity.class);
+            plan = getJPAPlan(odataClass, newClass(jpaEntityAnno.value()), entityDataModel);
+            odataPlans.put(odataClass, plan);
         }
 
+        return plan;
+    }
 
-        Class<?> sourceClass = odataEntity.getClass();
-        ODataJPAEntity jpaEntityAnno = getAnnotation(sourceClass, ODataJPAEntity.class);
+    /**
+     * Gets the mapping plan between an OData class and a JPA class, creating it on first use.
+     */
+    private JPAMappingPlan getJPAPlan(Class<?> odataClass, Class<?> jpaClass, EntityDataModel entityDataModel)
+            throws ODataDataSourceException {
+        Map<Class<?>, JPAMappingPlan> plans = jpaPlans.computeIfAbsent(odataClass, c -> new ConcurrentHashMap<>());
+        JPAMappingPlan plan = plans.get(jpaClass);
+        if (plan == null) {
+            checkAnnotationPresent(odataClass, ODataJPAEntity.class);
+            plan = JPAMappingPlan.create(odataClass, jpaClass, entityDataModel);
+            JPAMappingPlan existing = plans.putIfAbsent(jpaClass, plan);
+            if (existing != null) {
+                plan = existing;
+            }
+        }
 
-        final String targetClass = jpaEntityAnno.value();
-        LOG.debug("Mapping OData entity to JPA: {} => {}", sourceClass.getName(), targetClass);
+        return plan;
+    }
 
-        // Create new instance of JPA entity
-        final Object jpaEntity = newInstance(targetClass);
+    /**
+     * The context of a single conversion, it keeps track of the entities that were already mapped by their identity.
+     * Proxies and lazy collections are resolved while the JPA entities are mapped, without modifying them.
+     */
+    private final class ConversionContext implements JPAMappingContext, JPAResultConverter {
+        private final EntityDataModel entityDataModel;
+        private final Collection<String> expandProperties;
+        private final Map<Object, Object> visitedEntities = new IdentityHashMap<>();
+        private int depth;
 
-        // Put entity to map of already visited
-        visitedEntities.put(odataEntity, jpaEntity);
+        private ConversionContext(EntityDataModel entityDataModel, Collection<String> expandProperties) {
+            this.entityDataModel = entityDataModel;
+            this.expandProperties = expandProperties;
+        }
 
-        StructuredType structType = (StructuredType) entityDataModel.getType(sourceClass);
+        @Override
+        public <T> T convert(Object jpaEntity, Class<T> odataEntityClass) throws ODataDataSourceException {
+            return odataEntityClass.cast(toOData(jpaEntity, odataEntityClass));
+        }
+
+        @Override
+        public boolean isExpanded(String jpaPropertyName) {
+            // The expanded properties are properties of the converted entity, not of the entities it refers to
+            return expandProperties == null || (depth == 1 && expandProperties.contains(jpaPropertyName));
+        }
+
+        @Override
+        public Object toJPA(Object odataEntity) throws ODataDataSourceException {
+            if (odataEntity == null) {
+                return null;
+            }
+
+            // If we already have entity in map, then it is a cyclic link, just return stored entity
+            if (visitedEntities.containsKey(odataEntity)) {
+                return visitedEntities.get(odataEntity);
+            }
+
+            JPAMappingPlan plan = getODataPlan(odataEntity.getClass(), entityDataModel);
+            LOG.debug("Mapping OData entity to JPA: {} => {}", plan.getODataClass().getName(),
+                    plan.getJPAClass().getName());
 
-        // Copy field values from OData entity to JPA entity
-        visitProperties(entityDataModel, structType, new JPAPropertyVisitor() {
-            @Override
-            public void visit(StructuralProperty property, String jpaFieldName) throws ODataDataSourceException {
-                Object odataValue = getPropertyValue(property, odataEntity);
+            JPAGeneratedMapper generatedMapper = plan.getGeneratedMapper();
+            if (generatedMapper != null) {
+                Object jpaEntity = generatedMapper.newJPAEntity();
+                visitedEntities.put(odataEntity, jpaEntity);
+                generatedMapper.copyToJPA(odataEntity, jpaEntity, this);
+                return jpaEntity;
+            }
+
+            // Create new instance of JPA entity
+            Object jpaEntity = plan.newJPAInstance();
+
+            // Put entity to map of already visited
+            visitedEntities.put(odataEntity, jpaEntity);
+
+            // Copy field values from OData entity to JPA entity
+            for (JPAMappingPlan.PropertyMapping mapping : plan.getProperties()) {
+                Object odataValue = mapping.readOData(odataEntity);
                 Object jpaValue = odataValue;
 
                 // If the value is not null and the property is of a structured type, then map value(s) recursively
-                if (odataValue != null && isStructuredType(getPropertyType(entityDataModel, property))) {
-                    if (property.isCollection()) {
-                        Collection<Object> result = createPropertyCollection(property);
-                        for (Object element : (Iterable<?>) odataValue) {
-                            result.add(odataEntityToJPA(element, entityDataModel, visitedEntities));
-                        }
-                        jpaValue = result;
+                if (odataValue != null && mapping.isStructured()) {
+                    if (mapping.isCollection()) {
+                        jpaValue = toJPACollection((Iterable<?>) odataValue,
+                                createPropertyCollection(mapping.getProperty()));
                     } else {
-                        jpaValue = odataEntityToJPA(odataValue, entityDataModel, visitedEntities);
+                        jpaValue = toJPA(odataValue);
                     }
                 }
 
-                writeField(getField(jpaEntity.getClass(), jpaFieldName), jpaEntity, jpaValue);
+                mapping.writeJPA(jpaEntity, jpaValue);
             }
-        });
 
-        return jpaEntity;
-    }
+            return jpaEntity;
+        }
 
-    @Override
-    public <T> T convertDSEntityToOData(Object jpaEntity, Class<T> odataEntityClass, EntityDataModel entityDataModel)
-            throws ODataDataSourceException {
-        return jpaEntityToOData(jpaEntity, odataEntityClass, entityDataModel, new HashMap<>());
-    }
+        @Override
+        public Collection<Object> toJPACollection(Iterable<?> odataEntities, Collection<Object> result)
+                throws ODataDataSourceException {
+            if (odataEntities == null) {
+                return null;
+            }
 
-    private <T> T jpaEntityToOData(final Object jpaEntity, Class<T> odataEntityClass,
-                                   final EntityDataModel entityDataModel, final Map<Object, Object> visitedEntities)
-            throws ODataDataSourceException {
-        // If we already have entity in map, then it is a cyclic link, just return stored entity
-        if (visitedEntities.containsKey(jpaEntity)) {
-            return odataEntityClass.cast(visitedEntities.get(jpaEntity));
+            for (Object element : odataEntities) {
+                result.add(toJPA(element));
+            }
+
+            return result;
         }
 
-        final Class<?> sourceClass = jpaEntity.getClass();
-        checkAnnotationPresent(odataEntityClass, ODataJPAEntity.class);
+        @Override
+        public Object toOData(Object source, Class<?> odataClass) throws ODataDataSourceException {
+            // Lazy associations that were not loaded are left out
+            if (source == null || !Hibernate.isInitialized(source)) {
+                return null;
+            }
+
+            Object jpaEntity = source instanceof HibernateProxy ?
+                    ((HibernateProxy) source).getHibernateLazyInitializer().getImplementation() : source;
+
+            // The expanded entities are shared by all results of a query. The results themselves are not, no other
+            // entity refers to them because the navigation properties of the expanded entities are not mapped.
+            boolean shared = expandProperties == null || depth > 0;
+
+            // If we already have entity in map, then it is a cyclic link or a shared entity, just return stored entity
+            if (shared && visitedEntities.containsKey(jpaEntity)) {
+                return visitedEntities.get(jpaEntity);
+            }
 
-        final StructuredType structType = (StructuredType) entityDataModel.getType(odataEntityClass);
+            JPAMappingPlan plan = getJPAPlan(odataClass, jpaEntity.getClass(), entityDataModel);
+            LOG.debug("Mapping JPA entity to OData: {} => {}", plan.getJPAClass().getName(), odataClass.getName());
 
-        LOG.debug("Mapping JPA entity to OData: {} => {}", sourceClass.getName(), odataEntityClass.getName());
+            JPAGeneratedMapper generatedMapper = plan.getGeneratedMapper();
+            Object odataEntity = generatedMapper != null ? generatedMapper.newODataEntity() : plan.newODataInstance();
 
-        // Create new instance of OData entity
-        final T odataEntity = newInstance(odataEntityClass);
+            //add visited entity to map
+            if (shared) {
+                visitedEntities.put(jpaEntity, odataEntity);
+            }
 
-        //add visited entity to map
-        visitedEntities.put(jpaEntity, odataEntity);
+            depth++;
+            try {
+                if (generatedMapper != null) {
+                    generatedMapper.copyToOData(jpaEntity, odataEntity, this);
+                } else {
+                    copyToOData(plan, jpaEntity, odataEntity);
+                }
+            } finally {
+                depth--;
+            }
 
-        // Copy field values from JPA entity to OData entity
-        visitProperties(entityDataModel, structType, new JPAPropertyVisitor() {
-            @Override
-            public void visit(StructuralProperty property, String jpaFieldName) throws ODataDataSourceException {
-                Object jpaValue = readField(getField(sourceClass, jpaFieldName), jpaEntity);
+            return odataEntity;
+        }
+
+        private void copyToOData(JPAMappingPlan plan, Object jpaEntity, Object odataEntity)
+                throws ODataDataSourceException {
+            // Copy field values from JPA entity to OData entity
+            for (JPAMappingPlan.PropertyMapping mapping : plan.getProperties()) {
+                if (mapping.isNavigation() && !isExpanded(mapping.getJPAField().getName())) {
+                    continue;
+                }
+
+                Object jpaValue = mapping.readJPA(jpaEntity);
                 Object odataValue = jpaValue;
 
                 // If the value is not null and the property is of a structured type, then map value(s) recursively
-                if (jpaValue != null && isStructuredType(getPropertyType(entityDataModel, property))) {
-                    Class<?> targetType = getPropertyType(entityDataModel, property).getJavaType();
-                    if (property.isCollection()) {
-                        Collection<Object> result = createPropertyCollection(property);
-                        for (Object element : (Iterable<?>) jpaValue) {
-                            result.add(jpaEntityToOData(element, targetType, entityDataModel, visitedEntities));
-                        }
-                        odataValue = result;
+                if (jpaValue != null && mapping.isStructured()) {
+                    if (mapping.isCollection()) {
+                        odataValue = toODataCollection((Iterable<?>) jpaValue, mapping.getStructuredType(),
+                                createPropertyCollection(mapping.getProperty()));
                     } else {
-                        odataValue = jpaEntityToOData(jpaValue, targetType, entityDataModel, visitedEntities);
+                        odataValue = toOData(jpaValue, mapping.getStructuredType());
                     }
+                } else if (jpaValue != null && mapping.isCollection()) {
+                    odataValue = toODataValues((Iterable<?>) jpaValue, createPropertyCollection(mapping.getProperty()));
                 }
 
-                setPropertyValue(property, odataEntity, odataValue);
+                mapping.writeOData(odataEntity, odataValue);
+            }
+        }
+
+        @Override
+        public Collection<Object> toODataCollection(Iterable<?> jpaEntities, Class<?> odataClass,
+                                                    Collection<Object> result) throws ODataDataSourceException {
+            if (jpaEntities == null || !Hibernate.isInitialized(jpaEntities)) {
+                return null;
+            }
+
+            for (Object element : jpaEntities) {
+                result.add(toOData(element, odataClass));
             }
-        });
 
-        return odataEntity;
+            return result;
+        }
+
+        @Override
+        public Collection<Object> toODataValues(Iterable<?> jpaValues, Collection<Object> result) {
+            // A lazy collection that was not loaded can not be loaded when the result is written, it is left out
+            if (jpaValues == null || !Hibernate.isInitialized(jpaValues)) {
+                return null;
+            }
+
+            for (Object value : jpaValues) {
+                result.add(value);
+            }
+
+            return result;
+        }
     }
 }
@@ -0,0 +1,54 @@
+/**
+ * Copyright (c) 2016 All Rights Reserved by the SDL Group.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sdl.odata.datasource.jpa.mapper;
+
+import com.sdl.odata.api.processor.datasource.ODataDataSourceException;
+
+/**
+ * Mapper between an OData entity class and its JPA entity class, generated together with the OData entity class.
+ * The generated mapper reads and writes the fields of the OData entity directly and the properties of the JPA entity
+ * through its public getters and setters. The values of navigation properties and of collections are mapped through
+ * the {@link JPAMappingContext} of the conversion.
+ */
+public interface JPAGeneratedMapper {
+    /**
+     * The suffix of the name of the mapper class, the name of a generated mapper is the name of its OData class
+     * followed by this suffix.
+     */
+    String CLASS_SUFFIX = "$JPAMapper";
+
+    Object newJPAEntity();
+
+    Object newODataEntity();
+
+    /**
+     * Copies the properties of an OData entity to a JPA entity.
+     * @param odataEntity The OData entity to read the properties from
+     * @param jpaEntity The JPA entity to write the properties to
+     * @param context The context of the conversion, used to map the navigation properties
+     * @throws ODataDataSourceException If unable to map a navigation property
+     */
+    void copyToJPA(Object odataEntity, Object jpaEntity, JPAMappingContext context) throws ODataDataSourceException;
+
+    /**
+     * Copies the properties of a JPA entity to an OData entity.
+     * @param jpaEntity The JPA entity to read the properties from
+     * @param odataEntity The OData entity to write the properties to
+     * @param context The context of the conversion, used to map the navigation properties
+     * @throws ODataDataSourceException If unable to map a navigation property
+     */
+    void copyToOData(Object jpaEntity, Object odataEntity, JPAMappingContext context) throws ODataDataSourceException;
+}
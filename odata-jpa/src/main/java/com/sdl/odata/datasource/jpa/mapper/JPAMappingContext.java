@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) 2016 All Rights Reserved by the SDL Group.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sdl.odata.datasource.jpa.mapper;
+
+import com.sdl.odata.api.processor.datasource.ODataDataSourceException;
+
+import java.util.Collection;
+
+/**
+ * The context of a single conversion between OData entities and JPA entities. It maps the values of the
+ * navigation properties, returning the entity that was already mapped when an entity is reached again.
+ */
+public interface JPAMappingContext {
+    /**
+     * Whether a navigation property of the JPA entity that is being mapped to an OData entity is mapped. Only the
+     * expanded navigation properties of the converted entity are mapped when the expanded properties are known.
+     * @param jpaPropertyName The name of the JPA property
+     * @return {@code true} if the navigation property is mapped
+     */
+    boolean isExpanded(String jpaPropertyName);
+
+    /**
+     * Maps an OData entity to a JPA entity.
+     * @param odataEntity The OData entity, may be {@code null}
+     * @return The JPA entity, or {@code null} if the OData entity is {@code null}
+     * @throws ODataDataSourceException If unable to map the entity
+     */
+    Object toJPA(Object odataEntity) throws ODataDataSourceException;
+
+    /**
+     * Maps OData entities to JPA entities.
+     * @param odataEntities The OData entities, may be {@code null}
+     * @param result The collection to add the JPA entities to
+     * @return The result collection, or {@code null} if the OData entities are {@code null}
+     * @throws ODataDataSourceException If unable to map an entity
+     */
+    Collection<Object> toJPACollection(Iterable<?> odataEntities, Collection<Object> result)
+            throws ODataDataSourceException;
+
+    /**
+     * Maps a JPA entity to an OData entity.
+     * @param jpaEntity The JPA entity, may be {@code null}
+     * @param odataClass The OData entity class
+     * @return The OData entity, or {@code null} if the JPA entity is {@code null}
+     * @throws ODataDataSourceException If unable to map the entity
+     */
+    Object toOData(Object jpaEntity, Class<?> odataClass) throws ODataDataSourceException;
+
+    /**
+     * Maps JPA entities to OData entities.
+     * @param jpaEntities The JPA entities, may be {@code null}
+     * @param odataClass The OData entity class of the elements
+     * @param result The collection to add the OData entities to
+     * @return The result collection, or {@code null} if the JPA entities are {@code null}
+     * @throws ODataDataSourceException If unable to map an entity
+     */
+    Collection<Object> toODataCollection(Iterable<?> jpaEntities, Class<?> odataClass, Collection<Object> result)
+            throws ODataDataSourceException;
+
+    /**
+     * Copies the values of a collection property that is not of a structured type, such as an element collection.
+     * @param jpaValues The values of the JPA property, may be {@code null}
+     * @param result The collection to add the values to
+     * @return The result collection, or {@code null} if the values are {@code null} or a lazy collection that was not
+     * loaded
+     */
+    Collection<Object> toODataValues(Iterable<?> jpaValues, Collection<Object> result);
+}
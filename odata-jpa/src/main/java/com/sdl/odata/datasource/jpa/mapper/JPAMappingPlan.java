@@ -0,0 +1,274 @@
+/**
+ * Copyright (c) 2016 All Rights Reserved by the SDL Group.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sdl.odata.datasource.jpa.mapper;
+
+import com.sdl.odata.api.edm.model.EntityDataModel;
+import com.sdl.odata.api.edm.model.NavigationProperty;
+import com.sdl.odata.api.edm.model.StructuralProperty;
+import com.sdl.odata.api.edm.model.StructuredType;
+import com.sdl.odata.api.edm.model.Type;
+import com.sdl.odata.api.processor.datasource.ODataDataSourceException;
+import com.sdl.odata.datasource.jpa.ODataJPAEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.sdl.odata.datasource.jpa.util.ReflectionUtil.getField;
+import static com.sdl.odata.util.edm.EntityDataModelUtil.getPropertyType;
+import static com.sdl.odata.util.edm.EntityDataModelUtil.isStructuredType;
+import static com.sdl.odata.util.edm.EntityDataModelUtil.visitProperties;
+
+/**
+ * The resolved mapping between an OData class and a JPA class. The annotations and fields of both classes are
+ * looked up once when the plan is created, after which the conversion only invokes the resolved accessors.
+ */
+final class JPAMappingPlan {
+    private static final Logger LOG = LoggerFactory.getLogger(JPAMappingPlan.class);
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+    private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Object.class);
+
+    private final Class<?> odataClass;
+    private final Class<?> jpaClass;
+    private final MethodHandle odataConstructor;
+    private final MethodHandle jpaConstructor;
+    private final List<PropertyMapping> properties;
+    private final JPAGeneratedMapper generatedMapper;
+
+    private JPAMappingPlan(Class<?> odataClass, Class<?> jpaClass, List<PropertyMapping> properties)
+            throws ODataDataSourceException {
+        this.odataClass = odataClass;
+        this.jpaClass = jpaClass;
+        this.odataConstructor = constructor(odataClass);
+        this.jpaConstructor = constructor(jpaClass);
+        this.properties = Collections.unmodifiableList(properties);
+        this.generatedMapper = loadGeneratedMapper(odataClass, jpaClass);
+    }
+
+    /**
+     * Creates the mapping plan for the given pair of classes.
+     * @param odataClass The OData class
+     * @param jpaClass The JPA class
+     * @param entityDataModel The entity data model
+     * @return The mapping plan
+     * @throws ODataDataSourceException If a mapped field does not exist in the JPA class
+     */
+    static JPAMappingPlan create(Class<?> odataClass, Class<?> jpaClass, EntityDataModel entityDataModel)
+            throws ODataDataSourceException {
+        StructuredType structType = (StructuredType) entityDataModel.getType(odataClass);
+        List<PropertyMapping> properties = new ArrayList<>();
+        visitProperties(entityDataModel, structType, new JPAPropertyVisitor() {
+            @Override
+            public void visit(StructuralProperty property, String jpaFieldName) throws ODataDataSourceException {
+                Type propertyType = getPropertyType(entityDataModel, property);
+                properties.add(new PropertyMapping(property, getField(jpaClass, jpaFieldName),
+                        isStructuredType(propertyType) ? propertyType.getJavaType() : null));
+            }
+        });
+
+        return new JPAMappingPlan(odataClass, jpaClass, properties);
+    }
+
+    Class<?> getODataClass() {
+        return odataClass;
+    }
+
+    Class<?> getJPAClass() {
+        return jpaClass;
+    }
+
+    List<PropertyMapping> getProperties() {
+        return properties;
+    }
+
+    /**
+     * The mapper that was generated for this pair of classes together with the OData class.
+     * @return The generated mapper, or {@code null} if there is none and the properties must be mapped using the
+     * accessors of this plan
+     */
+    JPAGeneratedMapper getGeneratedMapper() {
+        return generatedMapper;
+    }
+
+    Object newODataInstance() throws ODataDataSourceException {
+        return construct(odataConstructor, odataClass);
+    }
+
+    Object newJPAInstance() throws ODataDataSourceException {
+        return construct(jpaConstructor, jpaClass);
+    }
+
+    private static JPAGeneratedMapper loadGeneratedMapper(Class<?> odataClass, Class<?> jpaClass) {
+        // The mapper is generated for the JPA class named in the annotation, not for its subclasses
+        ODataJPAEntity jpaEntityAnno = odataClass.getAnnotation(ODataJPAEntity.class);
+        if (jpaEntityAnno == null || !jpaClass.getName().equals(jpaEntityAnno.value())) {
+            return null;
+        }
+
+        String mapperName = odataClass.getName() + JPAGeneratedMapper.CLASS_SUFFIX;
+        try {
+            Class<?> mapperClass = Class.forName(mapperName, true, odataClass.getClassLoader());
+            LOG.debug("Using generated mapper: {}", mapperName);
+            return (JPAGeneratedMapper) mapperClass.newInstance();
+        } catch (ClassNotFoundException e) {
+            LOG.debug("No generated mapper for: {}", odataClass.getName());
+            return null;
+        } catch (InstantiationException | IllegalAccessException | ClassCastException e) {
+            LOG.warn("Unable to load generated mapper: {}", mapperName, e);
+            return null;
+        }
+    }
+
+    private static Object construct(MethodHandle constructor, Class<?> cls) throws ODataDataSourceException {
+        try {
+            return constructor.invokeExact();
+        } catch (Throwable e) {
+            throw new ODataDataSourceException("Cannot create new instance of: " + cls.getName(), e);
+        }
+    }
+
+    private static MethodHandle constructor(Class<?> cls) throws ODataDataSourceException {
+        try {
+            Constructor<?> constructor = cls.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return LOOKUP.unreflectConstructor(constructor).asType(CONSTRUCTOR_TYPE);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new ODataDataSourceException("Cannot create new instance of: " + cls.getName(), e);
+        }
+    }
+
+    private static MethodHandle getter(Field field) throws ODataDataSourceException {
+        field.setAccessible(true);
+        try {
+            return LOOKUP.unreflectGetter(field).asType(GETTER_TYPE);
+        } catch (IllegalAccessException e) {
+            throw new ODataDataSourceException("Cannot read field: " + field.getName(), e);
+        }
+    }
+
+    private static MethodHandle setter(Field field) throws ODataDataSourceException {
+        field.setAccessible(true);
+        try {
+            return LOOKUP.unreflectSetter(field).asType(SETTER_TYPE);
+        } catch (IllegalAccessException e) {
+            throw new ODataDataSourceException("Cannot write field: " + field.getName(), e);
+        }
+    }
+
+    /**
+     * The mapping of a single property, with the accessors of the OData field and the JPA field.
+     */
+    static final class PropertyMapping {
+        private final StructuralProperty property;
+        private final Field odataField;
+        private final Field jpaField;
+        private final MethodHandle odataGetter;
+        private final MethodHandle odataSetter;
+        private final MethodHandle jpaGetter;
+        private final MethodHandle jpaSetter;
+        private final Class<?> structuredType;
+
+        private PropertyMapping(StructuralProperty property, Field jpaField, Class<?> structuredType)
+                throws ODataDataSourceException {
+            this.property = property;
+            this.odataField = property.getJavaField();
+            this.jpaField = jpaField;
+            this.odataGetter = getter(odataField);
+            this.odataSetter = setter(odataField);
+            this.jpaGetter = getter(jpaField);
+            this.jpaSetter = setter(jpaField);
+            this.structuredType = structuredType;
+        }
+
+        StructuralProperty getProperty() {
+            return property;
+        }
+
+        Field getODataField() {
+            return odataField;
+        }
+
+        Field getJPAField() {
+            return jpaField;
+        }
+
+        /**
+         * Whether the property is of a structured type, in which case its value(s) must be mapped recursively.
+         * @return {@code true} if the property is of a structured type
+         */
+        boolean isStructured() {
+            return structuredType != null;
+        }
+
+        /**
+         * The Java type of the OData property, or of its elements if it is a collection.
+         * @return The OData class of the structured type, or {@code null} if the property is not structured
+         */
+        Class<?> getStructuredType() {
+            return structuredType;
+        }
+
+        boolean isCollection() {
+            return property.isCollection();
+        }
+
+        boolean isNavigation() {
+            return property instanceof NavigationProperty;
+        }
+
+        Object readOData(Object odataEntity) throws ODataDataSourceException {
+            try {
+                return odataGetter.invokeExact(odataEntity);
+            } catch (Throwable e) {
+                throw new ODataDataSourceException("Cannot read field: " + odataField.getName(), e);
+            }
+        }
+
+        void writeOData(Object odataEntity, Object value) throws ODataDataSourceException {
+            try {
+                odataSetter.invokeExact(odataEntity, value);
+            } catch (Throwable e) {
+                throw new ODataDataSourceException("Cannot write field: " + odataField.getName(), e);
+            }
+        }
+
+        Object readJPA(Object jpaEntity) throws ODataDataSourceException {
+            try {
+                return jpaGetter.invokeExact(jpaEntity);
+            } catch (Throwable e) {
+                throw new ODataDataSourceException("Cannot read field: " + jpaField.getName(), e);
+            }
+        }
+
+        void writeJPA(Object jpaEntity, Object value) throws ODataDataSourceException {
+            try {
+                jpaSetter.invokeExact(jpaEntity, value);
+            } catch (Throwable e) {
+                throw new ODataDataSourceException("Cannot write field: " + jpaField.getName(), e);
+            }
+        }
+    }
+}
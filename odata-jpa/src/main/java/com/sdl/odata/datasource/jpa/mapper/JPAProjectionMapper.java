@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2016 All Rights Reserved by the SDL Group.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sdl.odata.datasource.jpa.mapper;
+
+import com.sdl.odata.api.edm.model.EntityDataModel;
+import com.sdl.odata.api.edm.model.StructuralProperty;
+import com.sdl.odata.api.edm.model.StructuredType;
+import com.sdl.odata.api.processor.datasource.ODataDataSourceException;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.sdl.odata.datasource.jpa.util.ReflectionUtil.newInstance;
+import static com.sdl.odata.util.edm.EntityDataModelUtil.setPropertyValue;
+
+/**
+ * Maps the rows of a projection query directly to OData entities, without loading the JPA entities. The mapping
+ * from the selected columns to the properties of the OData entity type is computed once per projection.
+ */
+@Component
+public class JPAProjectionMapper {
+
+    private final Map<Class<?>, Map<List<String>, List<StructuralProperty>>> mappings = new ConcurrentHashMap<>();
+
+    /**
+     * Converts a projected row to an OData entity which only has the selected properties set.
+     * @param row The row, a single value or an array with a value per selected property
+     * @param odataEntityClass The OData entity class
+     * @param selectProperties The OData properties in the order of the selected columns
+     * @param entityDataModel The entity data model
+     * @param <T> The OData entity type
+     * @return The OData entity
+     * @throws ODataDataSourceException If unable to create the OData entity
+     */
+    public <T> T convertRowToOData(Object row, Class<T> odataEntityClass, List<String> selectProperties,
+                                   EntityDataModel entityDataModel) throws ODataDataSourceException {
+        List<StructuralProperty> properties = mappings
+                .computeIfAbsent(odataEntityClass, c -> new ConcurrentHashMap<>())
+                .computeIfAbsent(selectProperties, p -> getProperties(odataEntityClass, p, entityDataModel));
+
+        Object[] values = row instanceof Object[] ? (Object[]) row : new Object[] {row};
+        T odataEntity = newInstance(odataEntityClass);
+        for (int i = 0; i < properties.size(); i++) {
+            setPropertyValue(properties.get(i), odataEntity, values[i]);
+        }
+
+        return odataEntity;
+    }
+
+    private List<StructuralProperty> getProperties(Class<?> odataEntityClass, List<String> selectProperties,
+                                                   EntityDataModel entityDataModel) {
+        StructuredType structType = (StructuredType) entityDataModel.getType(odataEntityClass);
+        List<StructuralProperty> properties = new ArrayList<>();
+        for (String propertyName : selectProperties) {
+            properties.add(structType.getStructuralProperty(propertyName));
+        }
+
+        return properties;
+    }
+}
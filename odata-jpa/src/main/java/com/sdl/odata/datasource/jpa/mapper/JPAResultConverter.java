@@ -0,0 +1,34 @@
+/**
+ * Copyright (c) 2016 All Rights Reserved by the SDL Group.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sdl.odata.datasource.jpa.mapper;
+
+import com.sdl.odata.api.processor.datasource.ODataDataSourceException;
+
+/**
+ * Converts the JPA entities of one query result to OData entities. The entities that the results refer to are mapped
+ * once per query result, a JPA entity that is referred to by several results is converted to a single OData entity.
+ */
+public interface JPAResultConverter {
+    /**
+     * Converts a JPA entity of the query result to an OData entity.
+     * @param jpaEntity The JPA entity or a Hibernate proxy of it
+     * @param odataEntityClass The OData entity class
+     * @param <T> The OData entity type
+     * @return The OData entity, or {@code null} if the JPA entity is a proxy that was not loaded
+     * @throws ODataDataSourceException If unable to convert the entity
+     */
+    <T> T convert(Object jpaEntity, Class<T> odataEntityClass) throws ODataDataSourceException;
+}
@@ -0,0 +1,243 @@
+/**
+ * Copyright (c) 2016 All Rights Reserved by the SDL Group.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sdl.odata.datasource.jpa.query;
+
+import com.google.common.primitives.Primitives;
+import com.sdl.odata.api.ODataException;
+import com.sdl.odata.api.ODataSystemException;
+import com.sdl.odata.api.edm.model.EntityDataModel;
+import com.sdl.odata.api.edm.model.EntitySet;
+import com.sdl.odata.api.edm.model.EntityType;
+import com.sdl.odata.api.edm.model.NavigationProperty;
+import com.sdl.odata.api.edm.model.StructuralProperty;
+import com.sdl.odata.api.processor.query.ExpandOperation;
+import com.sdl.odata.api.processor.query.QueryOperation;
+import com.sdl.odata.api.processor.query.SelectByKeyOperation;
+import com.sdl.odata.api.processor.query.SelectOperation;
+import com.sdl.odata.api.processor.query.SelectPropertiesOperation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.persistence.IdClass;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.SingularAttribute;
+import javax.persistence.metamodel.Type;
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static com.sdl.odata.datasource.jpa.util.JPAMetadataUtil.getJPAEntityClass;
+import static com.sdl.odata.datasource.jpa.util.JPAMetadataUtil.getJPAPropertyName;
+import static com.sdl.odata.datasource.jpa.util.ReflectionUtil.getField;
+import static com.sdl.odata.datasource.jpa.util.ReflectionUtil.newInstance;
+import static com.sdl.odata.datasource.jpa.util.ReflectionUtil.writeField;
+
+/**
+ * A lookup of a single entity by its key, which is executed with {@code EntityManager.find} instead of a query, so
+ * that the persistence context and the second level cache are used. The expanded properties are loaded with an entity
+ * graph. Composite keys are looked up with an instance of the {@link IdClass} or the embedded id of the entity.
+ */
+public final class JPAKeyLookup {
+    private static final Logger LOG = LoggerFactory.getLogger(JPAKeyLookup.class);
+
+    private final Class<?> odataEntityClass;
+    private final Class<?> entityClass;
+    private final Object id;
+    private final List<String> expandProperties;
+    private final StructuralProperty selectProperty;
+
+    private JPAKeyLookup(Class<?> odataEntityClass, Class<?> entityClass, Object id, List<String> expandProperties,
+                         StructuralProperty selectProperty) {
+        this.odataEntityClass = odataEntityClass;
+        this.entityClass = entityClass;
+        this.id = id;
+        this.expandProperties = expandProperties;
+        this.selectProperty = selectProperty;
+    }
+
+    /**
+     * Creates the key lookup of the given operation, if it selects an entity set by key, optionally with expanded
+     * properties or a single selected property.
+     * @param entityDataModel The entity data model
+     * @param operation The query operation
+     * @param metamodel The JPA metamodel
+     * @return The key lookup, or {@code null} if the operation can not be executed as a key lookup
+     */
+    public static JPAKeyLookup from(EntityDataModel entityDataModel, QueryOperation operation, Metamodel metamodel) {
+        QueryOperation source = operation;
+        List<String> expandPropertyNames = new ArrayList<>();
+        String selectPropertyName = null;
+        if (source instanceof SelectPropertiesOperation) {
+            List<String> propertyNames = ((SelectPropertiesOperation) source).getPropertyNamesAsJava();
+            if (propertyNames.size() != 1) {
+                return null;
+            }
+            selectPropertyName = propertyNames.get(0);
+            source = ((SelectPropertiesOperation) source).getSource();
+        }
+        while (source instanceof ExpandOperation) {
+            expandPropertyNames.addAll(((ExpandOperation) source).getExpandPropertiesAsJava());
+            source = ((ExpandOperation) source).getSource();
+        }
+        if (!(source instanceof SelectByKeyOperation)
+                || !(((SelectByKeyOperation) source).getSource() instanceof SelectOperation)) {
+            return null;
+        }
+
+        SelectByKeyOperation selectByKey = (SelectByKeyOperation) source;
+        EntitySet entitySet = entityDataModel.getEntityContainer().getEntitySet(selectByKey.entitySetName());
+        EntityType entityType = (EntityType) entityDataModel.getType(entitySet.getTypeName());
+        try {
+            Class<?> entityClass = getJPAEntityClass(entityType.getJavaType());
+            Object id = getId(entityType, entityClass, selectByKey.getKeyAsJava(), metamodel);
+            if (id == null) {
+                return null;
+            }
+
+            List<String> expandProperties = new ArrayList<>();
+            for (String expandPropertyName : expandPropertyNames) {
+                expandProperties.add(getJPAPropertyName(entityType, expandPropertyName));
+            }
+            StructuralProperty selectProperty = selectPropertyName != null ?
+                    entityType.getStructuralProperty(selectPropertyName) : null;
+            if (selectPropertyName != null
+                    && (selectProperty == null || selectProperty instanceof NavigationProperty)) {
+                return null;
+            }
+
+            return new JPAKeyLookup(entityType.getJavaType(), entityClass, id,
+                    Collections.unmodifiableList(expandProperties), selectProperty);
+        } catch (ODataSystemException | IllegalArgumentException e) {
+            LOG.debug("Unable to look up entity by key, falling back to a query: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private static Object getId(EntityType entityType, Class<?> entityClass, Map<String, Object> key,
+                                Metamodel metamodel) {
+        javax.persistence.metamodel.EntityType<?> jpaEntityType = metamodel.entity(entityClass);
+        if (jpaEntityType.hasSingleIdAttribute()) {
+            SingularAttribute<?, ?> idAttribute = jpaEntityType.getId(jpaEntityType.getIdType().getJavaType());
+            if (idAttribute.getType().getPersistenceType() == Type.PersistenceType.BASIC) {
+                return key.size() == 1 ?
+                        convertKeyValue(key.values().iterator().next(), idAttribute.getJavaType()) : null;
+            }
+            // An embedded id
+            return newCompositeId(entityType, idAttribute.getJavaType(), key);
+        }
+
+        for (Class<?> type = entityClass; type != null; type = type.getSuperclass()) {
+            IdClass idClass = type.getAnnotation(IdClass.class);
+            if (idClass != null) {
+                return newCompositeId(entityType, idClass.value(), key);
+            }
+        }
+        return null;
+    }
+
+    private static Object newCompositeId(EntityType entityType, Class<?> idClass, Map<String, Object> key) {
+        try {
+            Object id = newInstance(idClass);
+            for (Map.Entry<String, Object> entry : key.entrySet()) {
+                String propertyName = getJPAPropertyName(entityType, entry.getKey());
+                Field field = getField(idClass,
+                        propertyName.substring(propertyName.lastIndexOf('.') + 1));
+                Object value = convertKeyValue(entry.getValue(), field.getType());
+                if (value == null) {
+                    return null;
+                }
+                writeField(field, id, value);
+            }
+            return id;
+        } catch (ODataException e) {
+            LOG.debug("Unable to create composite id: {}", idClass, e);
+            return null;
+        }
+    }
+
+    /**
+     * Converts a key value of the OData model to the type of a JPA id attribute.
+     * @param value The key value
+     * @param type The type of the id attribute
+     * @return The converted key value, or {@code null} if the value can not be converted
+     */
+    static Object convertKeyValue(Object value, Class<?> type) {
+        Class<?> wrappedType = Primitives.wrap(type);
+        Object keyValue = value instanceof scala.math.BigDecimal ? ((scala.math.BigDecimal) value).bigDecimal() : value;
+        if (wrappedType.isInstance(keyValue)) {
+            return keyValue;
+        } else if (!(keyValue instanceof Number)) {
+            return null;
+        }
+
+        Number number = (Number) keyValue;
+        if (wrappedType == Long.class) {
+            return number.longValue();
+        } else if (wrappedType == Integer.class) {
+            return number.intValue();
+        } else if (wrappedType == Short.class) {
+            return number.shortValue();
+        } else if (wrappedType == Byte.class) {
+            return number.byteValue();
+        } else if (wrappedType == Double.class) {
+            return number.doubleValue();
+        } else if (wrappedType == Float.class) {
+            return number.floatValue();
+        } else if (wrappedType == BigDecimal.class) {
+            return new BigDecimal(number.toString());
+        } else if (wrappedType == BigInteger.class) {
+            return new BigDecimal(number.toString()).toBigInteger();
+        }
+        return null;
+    }
+
+    public Class<?> getODataEntityClass() {
+        return odataEntityClass;
+    }
+
+    public Class<?> getEntityClass() {
+        return entityClass;
+    }
+
+    public Object getId() {
+        return id;
+    }
+
+    /**
+     * The JPA properties that are loaded together with the entity.
+     * @return The expanded JPA properties, empty if nothing is expanded
+     */
+    public List<String> getExpandProperties() {
+        return expandProperties;
+    }
+
+    /**
+     * The OData property whose value is requested instead of the entity.
+     * @return The selected property, or {@code null} if the entity is requested
+     */
+    public StructuralProperty getSelectProperty() {
+        return selectProperty;
+    }
+
+    @Override
+    public String toString() {
+        return entityClass.getSimpleName() + "(" + id + "), expand=" + expandProperties;
+    }
+}
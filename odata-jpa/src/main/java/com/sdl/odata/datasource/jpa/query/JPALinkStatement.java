@@ -0,0 +1,238 @@
+/**
+ * Copyright (c) 2016 All Rights Reserved by the SDL Group.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sdl.odata.datasource.jpa.query;
+
+import com.google.common.base.Strings;
+import com.sdl.odata.api.ODataBadRequestException;
+import com.sdl.odata.api.ODataException;
+import com.sdl.odata.api.ODataNotImplementedException;
+import com.sdl.odata.api.processor.link.ODataLink;
+import org.hibernate.MappingException;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.collection.QueryableCollection;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.ManyToMany;
+import javax.persistence.OneToMany;
+import javax.persistence.OneToOne;
+import javax.persistence.Query;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.PluralAttribute;
+import javax.persistence.metamodel.SingularAttribute;
+import javax.persistence.metamodel.Type;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Member;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static com.sdl.odata.datasource.jpa.query.JPAKeyLookup.convertKeyValue;
+import static com.sdl.odata.datasource.jpa.util.JPAMetadataUtil.getJPACollectionNames;
+import static com.sdl.odata.datasource.jpa.util.JPAMetadataUtil.getJPAEntityClass;
+import static com.sdl.odata.datasource.jpa.util.JPAMetadataUtil.getJPAPropertyName;
+import static scala.collection.JavaConversions.mapAsJavaMap;
+
+/**
+ * The statements that create and delete a link between two entities without loading them. The owning side of the
+ * association is resolved from the JPA metamodel: a link of a many-to-one or one-to-one association is written by
+ * updating the foreign key of the owning entity, a link of a collection in a join table by inserting or deleting the
+ * row of the join table.
+ */
+public final class JPALinkStatement {
+    private static final String ALIAS = "e";
+    private static final String KEY_PARAM = "key";
+    private static final String VALUE_PARAM = "value";
+
+    private final Class<?> ownerClass;
+    private final String ownerAttribute;
+    private final Object ownerId;
+    private final Class<?> valueClass;
+    private final Object valueId;
+    private final QueryableCollection joinTable;
+
+    private JPALinkStatement(Class<?> ownerClass, String ownerAttribute, Object ownerId, Class<?> valueClass,
+                             Object valueId, QueryableCollection joinTable) {
+        this.ownerClass = ownerClass;
+        this.ownerAttribute = ownerAttribute;
+        this.ownerId = ownerId;
+        this.valueClass = valueClass;
+        this.valueId = valueId;
+        this.joinTable = joinTable;
+    }
+
+    /**
+     * Resolves the statements of the given link.
+     * @param link The link
+     * @param entityManagerFactory The entity manager factory
+     * @return The link statements
+     * @throws ODataException If the association or the keys of the link are not supported
+     */
+    public static JPALinkStatement from(ODataLink link, EntityManagerFactory entityManagerFactory)
+            throws ODataException {
+        Metamodel metamodel = entityManagerFactory.getMetamodel();
+        Class<?> fromClass = getJPAEntityClass(link.getFromEntityType().getJavaType());
+        String attributeName = getJPAPropertyName(link.getFromEntityType(),
+                link.getFromNavigationProperty().getName());
+        Attribute<?, ?> attribute = metamodel.entity(fromClass).getAttribute(attributeName);
+        Class<?> toClass = attribute instanceof PluralAttribute ?
+                ((PluralAttribute<?, ?, ?>) attribute).getElementType().getJavaType() : attribute.getJavaType();
+
+        Object fromId = getId(metamodel.entity(fromClass), link.getFromEntityKey());
+        Object toId = getId(metamodel.entity(toClass), link.getToEntityKey());
+
+        String mappedBy = getMappedBy(attribute);
+        if (Strings.isNullOrEmpty(mappedBy)) {
+            if (attribute instanceof SingularAttribute) {
+                return new JPALinkStatement(fromClass, attributeName, fromId, toClass, toId, null);
+            }
+            return new JPALinkStatement(fromClass, attributeName, fromId, toClass, toId,
+                    getJoinTable(entityManagerFactory, fromClass, attributeName));
+        }
+
+        // The link is owned by the inverse attribute of the associated entity
+        Attribute<?, ?> inverseAttribute = metamodel.entity(toClass).getAttribute(mappedBy);
+        if (inverseAttribute instanceof SingularAttribute) {
+            return new JPALinkStatement(toClass, mappedBy, toId, fromClass, fromId, null);
+        }
+        return new JPALinkStatement(toClass, mappedBy, toId, fromClass, fromId,
+                getJoinTable(entityManagerFactory, toClass, mappedBy));
+    }
+
+    private static Object getId(EntityType<?> entityType, scala.collection.immutable.Map<String, Object> key)
+            throws ODataException {
+        Map<String, Object> keyValues = mapAsJavaMap(key);
+        if (!entityType.hasSingleIdAttribute() || keyValues.size() != 1) {
+            throw new ODataNotImplementedException("Links are only supported between entities with a single key: "
+                    + entityType.getName());
+        }
+
+        SingularAttribute<?, ?> idAttribute = entityType.getId(entityType.getIdType().getJavaType());
+        Object id = idAttribute.getType().getPersistenceType() == Type.PersistenceType.BASIC ?
+                convertKeyValue(keyValues.values().iterator().next(), idAttribute.getJavaType()) : null;
+        if (id == null) {
+            throw new ODataBadRequestException("Invalid key of entity " + entityType.getName() + ": " + keyValues);
+        }
+        return id;
+    }
+
+    private static String getMappedBy(Attribute<?, ?> attribute) {
+        Member member = attribute.getJavaMember();
+        if (!(member instanceof AnnotatedElement)) {
+            return null;
+        }
+
+        AnnotatedElement element = (AnnotatedElement) member;
+        if (element.isAnnotationPresent(OneToMany.class)) {
+            return element.getAnnotation(OneToMany.class).mappedBy();
+        } else if (element.isAnnotationPresent(OneToOne.class)) {
+            return element.getAnnotation(OneToOne.class).mappedBy();
+        } else if (element.isAnnotationPresent(ManyToMany.class)) {
+            return element.getAnnotation(ManyToMany.class).mappedBy();
+        }
+        return null;
+    }
+
+    private static QueryableCollection getJoinTable(EntityManagerFactory entityManagerFactory, Class<?> ownerClass,
+                                                    String attributeName) throws ODataException {
+        String role = ownerClass.getName() + "." + attributeName;
+        QueryableCollection collection;
+        try {
+            collection = (QueryableCollection) entityManagerFactory.unwrap(SessionFactoryImplementor.class)
+                    .getCollectionPersister(role);
+        } catch (MappingException | ClassCastException e) {
+            throw new ODataNotImplementedException("Links are not supported for collection: " + role);
+        }
+
+        if (collection.isOneToMany() || collection.hasIndex() || collection.getKeyColumnNames().length != 1
+                || collection.getElementColumnNames().length != 1) {
+            // Only plain join tables with single column foreign keys are written directly
+            throw new ODataNotImplementedException("Links are not supported for collection: " + role);
+        }
+        return collection;
+    }
+
+    /**
+     * Creates the statement that links the entities.
+     * @param entityManager The entity manager that executes the statement
+     * @return The update or insert statement
+     */
+    public Query createLink(EntityManager entityManager) {
+        if (joinTable != null) {
+            return entityManager.createNativeQuery("INSERT INTO " + joinTable.getTableName() + " ("
+                    + joinTable.getKeyColumnNames()[0] + ", " + joinTable.getElementColumnNames()[0]
+                    + ") VALUES (?, ?)")
+                    .setParameter(1, ownerId)
+                    .setParameter(2, valueId);
+        }
+
+        // UPDATE <owner> e SET e.<attribute> = :value WHERE e.<id> = :key
+        return entityManager.createQuery("UPDATE " + getEntityName(entityManager, ownerClass) + " " + ALIAS
+                + " SET " + ALIAS + "." + ownerAttribute + " = :" + VALUE_PARAM + " WHERE " + ALIAS + "."
+                + getIdName(entityManager, ownerClass) + " = :" + KEY_PARAM)
+                .setParameter(VALUE_PARAM, entityManager.getReference(valueClass, valueId))
+                .setParameter(KEY_PARAM, ownerId);
+    }
+
+    /**
+     * Creates the statement that unlinks the entities, if they are linked.
+     * @param entityManager The entity manager that executes the statement
+     * @return The update or delete statement
+     */
+    public Query deleteLink(EntityManager entityManager) {
+        if (joinTable != null) {
+            return entityManager.createNativeQuery("DELETE FROM " + joinTable.getTableName() + " WHERE "
+                    + joinTable.getKeyColumnNames()[0] + " = ? AND " + joinTable.getElementColumnNames()[0] + " = ?")
+                    .setParameter(1, ownerId)
+                    .setParameter(2, valueId);
+        }
+
+        // UPDATE <owner> e SET e.<attribute> = NULL WHERE e.<id> = :key AND e.<attribute> = :value
+        return entityManager.createQuery("UPDATE " + getEntityName(entityManager, ownerClass) + " " + ALIAS
+                + " SET " + ALIAS + "." + ownerAttribute + " = NULL WHERE " + ALIAS + "."
+                + getIdName(entityManager, ownerClass) + " = :" + KEY_PARAM + " AND " + ALIAS + "." + ownerAttribute
+                + " = :" + VALUE_PARAM)
+                .setParameter(VALUE_PARAM, entityManager.getReference(valueClass, valueId))
+                .setParameter(KEY_PARAM, ownerId);
+    }
+
+    /**
+     * The JPA collections whose contents change when the link is written.
+     * @return The names of the collections of both entities
+     */
+    public Set<String> getCollectionNames() {
+        Set<String> collectionNames = new LinkedHashSet<>(getJPACollectionNames(ownerClass));
+        collectionNames.addAll(getJPACollectionNames(valueClass));
+        return collectionNames;
+    }
+
+    private static String getEntityName(EntityManager entityManager, Class<?> entityClass) {
+        return entityManager.getMetamodel().entity(entityClass).getName();
+    }
+
+    private static String getIdName(EntityManager entityManager, Class<?> entityClass) {
+        EntityType<?> entityType = entityManager.getMetamodel().entity(entityClass);
+        return entityType.getId(entityType.getIdType().getJavaType()).getName();
+    }
+
+    @Override
+    public String toString() {
+        return ownerClass.getSimpleName() + "(" + ownerId + ")." + ownerAttribute + " -> " + valueClass.getSimpleName()
+                + "(" + valueId + ")" + (joinTable != null ? " in " + joinTable.getTableName() : "");
+    }
+}
@@ -15,7 +15,12 @@
  */
 package com.sdl.odata.datasource.jpa.query;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * The JPA Query containing the query string and parameters needed against the entitymanager.
@@ -23,17 +28,78 @@ import java.util.Map;
  */
 public final class JPAQuery {
 
+    /**
+     * The name of the parameter of the fetch query that holds the keys of the entities to fetch.
+     */
+    public static final String FETCH_KEYS_PARAM = "fetchKeys";
+
     private final String queryString;
+    private final String fetchQueryString;
     private final Map<String, Object> queryParams;
 
     private final int limitCount;
     private final int skipCount;
 
+    private final List<String> expandFields;
+    private final List<String> batchExpandFields;
+    private final List<String> keysetProperties;
+    private final List<String> selectProperties;
+    private final Set<String> collectionNames;
+
     public JPAQuery(String queryString, Map<String, Object> queryParams, int limitCount, int skipCount) {
         this.queryString = queryString;
+        this.fetchQueryString = null;
         this.queryParams = queryParams;
         this.limitCount = limitCount;
         this.skipCount = skipCount;
+        this.expandFields = Collections.emptyList();
+        this.batchExpandFields = Collections.emptyList();
+        this.keysetProperties = Collections.emptyList();
+        this.selectProperties = Collections.emptyList();
+        this.collectionNames = Collections.emptySet();
+    }
+
+    JPAQuery(String queryString, Map<String, Object> queryParams, Set<String> collectionNames) {
+        this.queryString = queryString;
+        this.fetchQueryString = null;
+        this.queryParams = queryParams;
+        this.limitCount = -1;
+        this.skipCount = -1;
+        this.expandFields = Collections.emptyList();
+        this.batchExpandFields = Collections.emptyList();
+        this.keysetProperties = Collections.emptyList();
+        this.selectProperties = Collections.emptyList();
+        this.collectionNames = collectionNames;
+    }
+
+    JPAQuery(String queryString, JPAQueryBuilder builder) {
+        this(queryString, null, builder);
+    }
+
+    JPAQuery(String queryString, String fetchQueryString, JPAQueryBuilder builder) {
+        this.queryString = queryString;
+        this.fetchQueryString = fetchQueryString;
+        this.queryParams = builder.getParams();
+        this.limitCount = builder.getLimitCount();
+        this.skipCount = builder.getSkipCount();
+        this.expandFields = builder.getExpandFields();
+        this.batchExpandFields = builder.getBatchExpandFields();
+        this.keysetProperties = builder.getKeysetProperties();
+        this.selectProperties = builder.getSelectProperties();
+        this.collectionNames = builder.getCollectionNames();
+    }
+
+    private JPAQuery(JPAQuery template, Map<String, Object> queryParams, int limitCount, int skipCount) {
+        this.queryString = template.queryString;
+        this.fetchQueryString = template.fetchQueryString;
+        this.queryParams = queryParams;
+        this.limitCount = limitCount;
+        this.skipCount = skipCount;
+        this.expandFields = template.expandFields;
+        this.batchExpandFields = template.batchExpandFields;
+        this.keysetProperties = template.keysetProperties;
+        this.selectProperties = template.selectProperties;
+        this.collectionNames = template.collectionNames;
     }
 
     public JPAQuery(String queryString, Map<String, Object> queryParams) {
@@ -44,6 +110,15 @@ public final class JPAQuery {
         return queryString;
     }
 
+    /**
+     * The query that fetches the entities selected by the keys that are returned by this query, set when a page
+     * of entities with fetch joined collections is selected by its keys first.
+     * @return The fetch query, or {@code null} if this query returns the entities itself
+     */
+    public String getFetchQueryString() {
+        return fetchQueryString;
+    }
+
     public Map<String, Object> getQueryParams() {
         return queryParams;
     }
@@ -56,8 +131,94 @@ public final class JPAQuery {
         return skipCount;
     }
 
+    /**
+     * The fields that are fetch joined into the query.
+     * @return The fetch joined fields, empty if nothing is fetch joined
+     */
+    public List<String> getExpandFields() {
+        return expandFields;
+    }
+
+    /**
+     * The expanded collections that are loaded in batches after the query, qualified with the alias of the
+     * selected entity.
+     * @return The batch loaded fields, empty if all expanded fields are fetch joined
+     */
+    public List<String> getBatchExpandFields() {
+        return batchExpandFields;
+    }
+
+    /**
+     * The properties of the selected entity that give the query a stable ordering when it is keyset paged.
+     * @return The keyset properties in order by sequence, empty if the query is not keyset paged
+     */
+    public List<String> getKeysetProperties() {
+        return keysetProperties;
+    }
+
+    /**
+     * The OData properties that are projected by the query, in the order of the selected columns. Every row of a
+     * projection is a single value or an array of values instead of a JPA entity.
+     * @return The projected properties, empty if the query selects whole entities
+     */
+    public List<String> getSelectProperties() {
+        return selectProperties;
+    }
+
+    /**
+     * The names of the JPA collections that are read by the query, including the collections of expanded fields.
+     * @return The collection names, empty if unknown
+     */
+    public Set<String> getCollectionNames() {
+        return collectionNames;
+    }
+
+    /**
+     * Creates a copy of this query with the same query string but with other parameter values and paging.
+     * @param newQueryParams The parameter values to bind
+     * @param newLimitCount The maximum number of results
+     * @param newSkipCount The number of results to skip
+     * @return The rebound query
+     */
+    public JPAQuery bind(Map<String, Object> newQueryParams, int newLimitCount, int newSkipCount) {
+        return new JPAQuery(this, newQueryParams, newLimitCount, newSkipCount);
+    }
+
+    /**
+     * Converts a parameter value to the type that the query expects. Numeric literals of a filter are parsed as Scala
+     * decimals, they are converted to the expected number type unless that would drop their fraction. Otherwise a
+     * whole number becomes an {@code Integer} or a {@code Long} and any other number a {@code BigDecimal}.
+     * @param value The parameter value
+     * @param type The type the query expects, or {@code null} if it is not known
+     * @return The converted parameter value
+     */
+    public static Object convertParameter(Object value, Class<?> type) {
+        if (!(value instanceof scala.math.BigDecimal)) {
+            return value;
+        }
+
+        BigDecimal decimal = ((scala.math.BigDecimal) value).bigDecimal();
+        boolean wholeNumber = decimal.signum() == 0 || decimal.stripTrailingZeros().scale() <= 0;
+        Object converted = type != null ? JPAKeyLookup.convertKeyValue(decimal, type) : null;
+        if (converted != null && (wholeNumber || converted instanceof Float || converted instanceof Double
+                || converted instanceof BigDecimal)) {
+            return converted;
+        }
+
+        if (wholeNumber) {
+            BigInteger integer = decimal.toBigIntegerExact();
+            if (integer.bitLength() < Integer.SIZE) {
+                return integer.intValue();
+            } else if (integer.bitLength() < Long.SIZE) {
+                return integer.longValue();
+            }
+        }
+        return decimal;
+    }
+
     @Override
     public String toString() {
-        return queryString + ", params=" + queryParams;
+        return queryString + (fetchQueryString != null ? ", fetch=" + fetchQueryString : "") +
+                ", params=" + queryParams;
     }
 }
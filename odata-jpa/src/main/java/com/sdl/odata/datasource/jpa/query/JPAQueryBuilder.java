@@ -19,9 +19,12 @@ import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 
 /**
@@ -32,24 +35,34 @@ import java.util.Map;
  * @author Jesper de Jong
  */
 public final class JPAQueryBuilder {
+    private static final String SET_PARAM_PREFIX = "set";
+
     private List<String> selectList = new ArrayList<>();
+    private List<String> selectProperties = new ArrayList<>();
 
     private boolean distinct;
 
+    private boolean count;
+
     private String fromCollection;
     private String fromAlias;
+    private String keyField;
+    private Set<String> collectionNames = new LinkedHashSet<>();
 
     private List<JoinString> joinStrings = new ArrayList<>();
     private List<String> expandFields = new ArrayList<>();
+    private List<String> batchExpandFields = new ArrayList<>();
+    private boolean fetchJoinCollection;
 
     private String whereClause;
 
     private List<String> orderByFields = new ArrayList<>();
+    private List<String> keysetProperties = new ArrayList<>();
 
     private int limitCount;
     private int skipCount;
 
-    private Map<String, Object> params = new HashMap<>();
+    private Map<String, Object> params = new LinkedHashMap<>();
 
     public List<String> getSelectList() {
         return selectList;
@@ -65,6 +78,20 @@ public final class JPAQueryBuilder {
         return this;
     }
 
+    public List<String> getSelectProperties() {
+        return selectProperties;
+    }
+
+    public JPAQueryBuilder setSelectProperties(List<String> selectProperties) {
+        this.selectProperties = selectProperties;
+        return this;
+    }
+
+    public JPAQueryBuilder addSelectProperty(String propertyName) {
+        this.selectProperties.add(propertyName);
+        return this;
+    }
+
     public boolean isDistinct() {
         return distinct;
     }
@@ -74,6 +101,15 @@ public final class JPAQueryBuilder {
         return this;
     }
 
+    public boolean isCount() {
+        return count;
+    }
+
+    public JPAQueryBuilder setCount(boolean count) {
+        this.count = count;
+        return this;
+    }
+
     public String getFromCollection() {
         return fromCollection;
     }
@@ -92,6 +128,29 @@ public final class JPAQueryBuilder {
         return this;
     }
 
+    public String getKeyField() {
+        return keyField;
+    }
+
+    public JPAQueryBuilder setKeyField(String keyField) {
+        this.keyField = keyField;
+        return this;
+    }
+
+    public Set<String> getCollectionNames() {
+        return collectionNames;
+    }
+
+    public JPAQueryBuilder addCollectionName(String collectionName) {
+        this.collectionNames.add(collectionName);
+        return this;
+    }
+
+    public JPAQueryBuilder addCollectionNames(Collection<String> names) {
+        this.collectionNames.addAll(names);
+        return this;
+    }
+
     public List<JoinString> getJoinStrings() {
         return joinStrings;
     }
@@ -120,6 +179,29 @@ public final class JPAQueryBuilder {
         return this;
     }
 
+    public boolean isFetchJoinCollection() {
+        return fetchJoinCollection;
+    }
+
+    public JPAQueryBuilder setFetchJoinCollection(boolean fetchJoinCollection) {
+        this.fetchJoinCollection = fetchJoinCollection;
+        return this;
+    }
+
+    public List<String> getBatchExpandFields() {
+        return batchExpandFields;
+    }
+
+    public JPAQueryBuilder setBatchExpandFields(List<String> batchExpandFields) {
+        this.batchExpandFields = batchExpandFields;
+        return this;
+    }
+
+    public JPAQueryBuilder addBatchExpandField(String batchExpandField) {
+        this.batchExpandFields.add(batchExpandField);
+        return this;
+    }
+
     public String getWhereClause() {
         return whereClause;
     }
@@ -143,6 +225,15 @@ public final class JPAQueryBuilder {
         return this;
     }
 
+    public List<String> getKeysetProperties() {
+        return keysetProperties;
+    }
+
+    public JPAQueryBuilder setKeysetProperties(List<String> keysetProperties) {
+        this.keysetProperties = keysetProperties;
+        return this;
+    }
+
     public int getLimitCount() {
         return limitCount;
     }
@@ -176,6 +267,10 @@ public final class JPAQueryBuilder {
     }
 
     public JPAQuery build() {
+        if (isTwoPhaseFetch()) {
+            return buildTwoPhaseFetch();
+        }
+
         StringBuilder queryStringBuilder = new StringBuilder();
 
         // SELECT [DISTINCT]
@@ -190,6 +285,134 @@ public final class JPAQueryBuilder {
             queryStringBuilder.append(fromAlias);
         }
 
+        appendFromJoins(queryStringBuilder);
+
+        // JOIN FETCH ...
+        if (!expandFields.isEmpty()) {
+            for (String expandField : expandFields) {
+                queryStringBuilder.append(" LEFT JOIN FETCH ").append(expandField);
+            }
+        }
+
+        appendWhere(queryStringBuilder);
+
+        if (!orderByFields.isEmpty()) {
+            queryStringBuilder.append(" ORDER BY ");
+            Joiner.on(',').appendTo(queryStringBuilder, orderByFields);
+        }
+
+        return new JPAQuery(queryStringBuilder.toString(), this);
+    }
+
+    /**
+     * Builds a query that counts the results of this query, the count query has the same FROM, JOIN and WHERE
+     * clauses but no ORDER BY, fetch joins or paging.
+     * @return The count query
+     */
+    public JPAQuery buildCount() {
+        StringBuilder queryStringBuilder = new StringBuilder();
+
+        // SELECT COUNT([DISTINCT] ...)
+        queryStringBuilder.append("SELECT COUNT(");
+        if (isDistinct()) {
+            queryStringBuilder.append("DISTINCT ");
+        }
+        queryStringBuilder.append(selectList.size() == 1 ? selectList.get(0) : fromAlias).append(')');
+
+        appendFromJoins(queryStringBuilder);
+        appendWhere(queryStringBuilder);
+
+        return new JPAQuery(queryStringBuilder.toString(), params, collectionNames);
+    }
+
+    /**
+     * Builds a statement that deletes the entities selected by this query, the statement has the same FROM and WHERE
+     * clauses.
+     * @return The delete statement
+     */
+    public JPAQuery buildDelete() {
+        StringBuilder queryStringBuilder = new StringBuilder("DELETE");
+        appendFromJoins(queryStringBuilder);
+        appendWhere(queryStringBuilder);
+
+        return new JPAQuery(queryStringBuilder.toString(), params, collectionNames);
+    }
+
+    /**
+     * Builds a statement that sets properties of the entities selected by this query, the statement has the same
+     * WHERE clause.
+     * @param values The new values by the names of the properties
+     * @return The update statement
+     */
+    public JPAQuery buildUpdate(Map<String, Object> values) {
+        StringBuilder queryStringBuilder = new StringBuilder();
+
+        // UPDATE <fromCollection> <fromAlias> SET <fromAlias>.<property> = :set1, ...
+        queryStringBuilder.append("UPDATE ").append(fromCollection).append(' ').append(fromAlias).append(" SET ");
+        Map<String, Object> statementParams = new LinkedHashMap<>(params);
+        List<String> assignments = new ArrayList<>();
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            String paramName = SET_PARAM_PREFIX + (assignments.size() + 1);
+            assignments.add(fromAlias + "." + entry.getKey() + " = :" + paramName);
+            statementParams.put(paramName, entry.getValue());
+        }
+        Joiner.on(", ").appendTo(queryStringBuilder, assignments);
+
+        appendWhere(queryStringBuilder);
+
+        return new JPAQuery(queryStringBuilder.toString(), statementParams, collectionNames);
+    }
+
+    /**
+     * A page of entities with fetch joined collections can not be limited by the database, because the joined rows
+     * are counted instead of the entities. Such a page is selected by its keys first.
+     */
+    private boolean isTwoPhaseFetch() {
+        return fetchJoinCollection && (limitCount > 0 || skipCount > 0) && keyField != null
+                && joinStrings.isEmpty() && selectList.isEmpty();
+    }
+
+    /**
+     * Builds a query that selects the keys of a page of entities, together with a fetch query that loads the
+     * entities of the page with their expanded fields by these keys.
+     */
+    private JPAQuery buildTwoPhaseFetch() {
+        StringBuilder queryStringBuilder = new StringBuilder();
+
+        // SELECT [DISTINCT] <keyField>[,<order by fields>], the order by fields must be selected when distinct
+        queryStringBuilder.append("SELECT ");
+        if (isDistinct()) {
+            queryStringBuilder.append("DISTINCT ");
+        }
+        queryStringBuilder.append(keyField);
+        for (String orderByField : orderByFields) {
+            String orderByPath = orderByField.substring(0, orderByField.lastIndexOf(' '));
+            if (!orderByPath.equals(keyField)) {
+                queryStringBuilder.append(',').append(orderByPath);
+            }
+        }
+
+        appendFromJoins(queryStringBuilder);
+        appendWhere(queryStringBuilder);
+
+        if (!orderByFields.isEmpty()) {
+            queryStringBuilder.append(" ORDER BY ");
+            Joiner.on(',').appendTo(queryStringBuilder, orderByFields);
+        }
+
+        StringBuilder fetchQueryBuilder = new StringBuilder();
+        fetchQueryBuilder.append("SELECT DISTINCT ").append(fromAlias);
+        appendFromJoins(fetchQueryBuilder);
+        for (String expandField : expandFields) {
+            fetchQueryBuilder.append(" LEFT JOIN FETCH ").append(expandField);
+        }
+        fetchQueryBuilder.append(" WHERE ").append(keyField).append(" IN (:").append(JPAQuery.FETCH_KEYS_PARAM)
+                .append(')');
+
+        return new JPAQuery(queryStringBuilder.toString(), fetchQueryBuilder.toString(), this);
+    }
+
+    private void appendFromJoins(StringBuilder queryStringBuilder) {
         // FROM <fromCollection> <fromAlias>
         queryStringBuilder.append(" FROM ").append(fromCollection).append(' ').append(fromAlias);
 
@@ -202,24 +425,12 @@ public final class JPAQueryBuilder {
                 queryStringBuilder.append(" JOIN ").append(joinString.getString());
             }
         }
+    }
 
-        // JOIN FETCH ...
-        if (!expandFields.isEmpty()) {
-            for (String expandField : expandFields) {
-                queryStringBuilder.append(" LEFT JOIN FETCH ").append(expandField);
-            }
-        }
-
+    private void appendWhere(StringBuilder queryStringBuilder) {
         // WHERE ...
         if (!Strings.isNullOrEmpty(whereClause)) {
             queryStringBuilder.append(" WHERE ").append(whereClause);
         }
-
-        if (!orderByFields.isEmpty()) {
-            queryStringBuilder.append(" ORDER BY ");
-            Joiner.on(',').appendTo(queryStringBuilder, orderByFields);
-        }
-
-        return new JPAQuery(queryStringBuilder.toString(), params, limitCount, skipCount);
     }
 }
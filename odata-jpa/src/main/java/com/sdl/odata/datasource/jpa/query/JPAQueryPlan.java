@@ -0,0 +1,71 @@
+/**
+ * Copyright (c) 2016 All Rights Reserved by the SDL Group.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sdl.odata.datasource.jpa.query;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compiled query plan, this is the query built for one query shape. The parameter names are kept in
+ * the order in which the literal values of the shape were lifted out, so the plan can be bound to the
+ * literal values of any operation tree with the same shape.
+ */
+final class JPAQueryPlan {
+    private final JPAQuery template;
+    private final List<String> paramNames;
+
+    private JPAQueryPlan(JPAQuery template, List<String> paramNames) {
+        this.template = template;
+        this.paramNames = paramNames;
+    }
+
+    /**
+     * Creates a plan from a freshly built query.
+     * @param query The query built for the given shape
+     * @param shape The shape the query was built from
+     * @return The plan, or {@code null} if the query parameters do not line up with the literals of the shape
+     */
+    static JPAQueryPlan from(JPAQuery query, JPAQueryShape shape) {
+        List<Object> literals = shape.getLiterals();
+        Map<String, Object> queryParams = query.getQueryParams();
+        if (queryParams.size() != literals.size()) {
+            return null;
+        }
+
+        List<String> paramNames = new ArrayList<>();
+        int index = 0;
+        for (Map.Entry<String, Object> entry : queryParams.entrySet()) {
+            if (entry.getValue() != literals.get(index++)) {
+                return null;
+            }
+            paramNames.add(entry.getKey());
+        }
+
+        return new JPAQueryPlan(query, paramNames);
+    }
+
+    JPAQuery bind(JPAQueryShape shape) {
+        List<Object> literals = shape.getLiterals();
+        Map<String, Object> queryParams = new LinkedHashMap<>();
+        for (int i = 0; i < paramNames.size(); i++) {
+            queryParams.put(paramNames.get(i), literals.get(i));
+        }
+
+        return template.bind(queryParams, shape.getLimitCount(), shape.getSkipCount());
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright (c) 2016 All Rights Reserved by the SDL Group.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sdl.odata.datasource.jpa.query;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.sdl.odata.api.ODataException;
+import com.sdl.odata.api.edm.model.EntityDataModel;
+import com.sdl.odata.api.processor.query.QueryOperation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Bounded cache of compiled query plans keyed by the shape of the query operation tree. On a hit the
+ * {@link JPAQueryStrategyBuilder} is skipped entirely and only the new literal values are bound. The cache also
+ * holds the expand settings the plans are built with.
+ */
+@Component
+public class JPAQueryPlanCache {
+    private static final Logger LOG = LoggerFactory.getLogger(JPAQueryPlanCache.class);
+
+    @Value("${datasource.query.planCacheSize:256}")
+    private long maximumSize;
+
+    @Value("${datasource.query.batchExpand:false}")
+    private boolean batchExpand;
+
+    @Value("#{'${datasource.query.joinFetchExpands:}'.split(',')}")
+    private Set<String> joinFetchExpands = Collections.emptySet();
+
+    private Cache<String, JPAQueryPlan> plans;
+
+    @PostConstruct
+    public void init() {
+        plans = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Gets the JPA query for the given operation, either from a cached plan or by building a new plan.
+     * @param entityDataModel The entity data model
+     * @param operation The query operation
+     * @return The JPA query
+     * @throws ODataException If unable to build the query
+     */
+    public JPAQuery getQuery(EntityDataModel entityDataModel, QueryOperation operation) throws ODataException {
+        return getQuery(entityDataModel, operation, false, null);
+    }
+
+    /**
+     * Gets the JPA query for the given operation with the given keyset paging settings.
+     * @param entityDataModel The entity data model
+     * @param operation The query operation
+     * @param keysetPaging {@code true} if the query can be keyset paged
+     * @param skipToken The skip token of the previous page, can be {@code null}
+     * @return The JPA query
+     * @throws ODataException If unable to build the query
+     */
+    public JPAQuery getQuery(EntityDataModel entityDataModel, QueryOperation operation, boolean keysetPaging,
+                             JPASkipToken skipToken) throws ODataException {
+        JPAQueryShape shape = maximumSize > 0 ? JPAQueryShape.of(operation, keysetPaging, skipToken) : null;
+        if (shape == null) {
+            return newStrategyBuilder(entityDataModel, keysetPaging, skipToken).build(operation);
+        }
+
+        JPAQueryPlan plan = plans.getIfPresent(shape.getKey());
+        if (plan != null) {
+            LOG.debug("Query plan cache hit for shape: {}", shape.getKey());
+            return plan.bind(shape);
+        }
+
+        JPAQuery query = newStrategyBuilder(entityDataModel, keysetPaging, skipToken).build(operation);
+        plan = JPAQueryPlan.from(query, shape);
+        if (plan != null) {
+            plans.put(shape.getKey(), plan);
+        } else {
+            LOG.debug("Query parameters do not line up with shape, not caching plan for: {}", shape.getKey());
+        }
+
+        return query;
+    }
+
+    private JPAQueryStrategyBuilder newStrategyBuilder(EntityDataModel entityDataModel, boolean keysetPaging,
+                                                       JPASkipToken skipToken) {
+        return new JPAQueryStrategyBuilder(entityDataModel)
+                .setKeysetPaging(keysetPaging)
+                .setSkipToken(skipToken)
+                .setBatchExpand(batchExpand)
+                .setJoinFetchExpands(joinFetchExpands);
+    }
+
+    public long getHitCount() {
+        return plans.stats().hitCount();
+    }
+
+    public long getMissCount() {
+        return plans.stats().missCount();
+    }
+
+    public long getEvictionCount() {
+        return plans.stats().evictionCount();
+    }
+
+    public long getSize() {
+        return plans.size();
+    }
+
+    public void setMaximumSize(long maximumSize) {
+        this.maximumSize = maximumSize;
+    }
+
+    public void setBatchExpand(boolean batchExpand) {
+        this.batchExpand = batchExpand;
+    }
+
+    public void setJoinFetchExpands(Set<String> joinFetchExpands) {
+        this.joinFetchExpands = joinFetchExpands;
+    }
+}
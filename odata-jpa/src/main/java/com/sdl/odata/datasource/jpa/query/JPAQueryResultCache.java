@@ -0,0 +1,204 @@
+/**
+ * Copyright (c) 2016 All Rights Reserved by the SDL Group.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sdl.odata.datasource.jpa.query;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.sdl.odata.api.ODataException;
+import com.sdl.odata.api.processor.datasource.ODataDataSourceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Bounded cache of query results keyed by the query string, the bound parameters and the batch loaded expansions of
+ * a JPA query. Concurrent
+ * requests for the same query wait for a single load. The results are tagged with the JPA collections the query reads,
+ * and are invalidated when the data source writes to one of these collections. The cache is disabled when its
+ * maximum size is 0.
+ */
+@Component
+public class JPAQueryResultCache {
+    private static final Logger LOG = LoggerFactory.getLogger(JPAQueryResultCache.class);
+
+    private static final long DEFAULT_TIME_TO_LIVE = 60;
+
+    @Value("${datasource.query.resultCacheSize:0}")
+    private long maximumSize;
+
+    @Value("${datasource.query.resultCacheTtl:60}")
+    private long timeToLive = DEFAULT_TIME_TO_LIVE;
+
+    @Value("#{'${datasource.query.resultCacheEntitySets:}'.split(',')}")
+    private Set<String> entitySets = Collections.emptySet();
+
+    private Cache<List<Object>, CachedResult> results;
+
+    private final AtomicLong generation = new AtomicLong();
+
+    private final Map<String, Long> invalidatedGenerations = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        entitySets = entitySets.stream().filter(name -> !name.isEmpty()).collect(Collectors.toSet());
+        results = maximumSize > 0 ? CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(timeToLive, TimeUnit.SECONDS)
+                .recordStats()
+                .build() : null;
+    }
+
+    /**
+     * Checks if the results of queries on the given entity set are cached.
+     * @param entitySetName The name of the OData entity set
+     * @return {@code true} if the results are cached
+     */
+    public boolean isEnabled(String entitySetName) {
+        return results != null && (entitySets.isEmpty() || entitySets.contains(entitySetName));
+    }
+
+    /**
+     * Gets the cached result of the given query, or loads the result if it is not cached. Only one caller loads the
+     * result of a query, other callers of the same query wait for it.
+     * @param query The JPA query
+     * @param variant Distinguishes the results that are mapped differently from the same query
+     * @param loader Loads the result of the query
+     * @param <T> The type of the result
+     * @return The result of the query
+     * @throws ODataException If unable to load the result
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(JPAQuery query, String variant, Callable<T> loader) throws ODataException {
+        List<Object> key = getKey(query, variant);
+        try {
+            CachedResult cachedResult = results.get(key,
+                    () -> new CachedResult(generation.get(), query.getCollectionNames(), loader.call()));
+            if (isInvalidated(cachedResult)) {
+                // The collections were written to while the result was being loaded
+                results.asMap().remove(key, cachedResult);
+                return loader.call();
+            }
+
+            return (T) cachedResult.value;
+        } catch (ExecutionException | UncheckedExecutionException | ExecutionError e) {
+            if (e.getCause() instanceof ODataException) {
+                throw (ODataException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new ODataDataSourceException("Unable to load the result of query: " + query, e.getCause());
+        } catch (ODataException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ODataDataSourceException("Unable to load the result of query: " + query, e);
+        }
+    }
+
+    /**
+     * Removes the cached results of all queries that read one of the given JPA collections.
+     * @param collectionNames The names of the JPA collections that were written to
+     */
+    public void invalidate(Collection<String> collectionNames) {
+        if (results == null || collectionNames.isEmpty()) {
+            return;
+        }
+
+        long invalidatedGeneration = generation.incrementAndGet();
+        for (String collectionName : collectionNames) {
+            invalidatedGenerations.put(collectionName, invalidatedGeneration);
+        }
+        results.asMap().values().removeIf(cachedResult ->
+                !Collections.disjoint(cachedResult.collectionNames, collectionNames));
+        LOG.debug("Invalidated cached query results of collections: {}", collectionNames);
+    }
+
+    private boolean isInvalidated(CachedResult cachedResult) {
+        for (String collectionName : cachedResult.collectionNames) {
+            Long invalidatedGeneration = invalidatedGenerations.get(collectionName);
+            if (invalidatedGeneration != null && invalidatedGeneration > cachedResult.generation) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The parameters are compared by their values, so parameters of different types are never equal. The batch loaded
+     * expansions are not part of the query string, but they are part of the result.
+     */
+    private static List<Object> getKey(JPAQuery query, String variant) {
+        return Arrays.asList(variant, query.getQueryString(), query.getFetchQueryString(),
+                new HashMap<>(query.getQueryParams()), query.getBatchExpandFields(), query.getLimitCount(),
+                query.getSkipCount());
+    }
+
+    public long getHitCount() {
+        return results != null ? results.stats().hitCount() : 0;
+    }
+
+    public long getMissCount() {
+        return results != null ? results.stats().missCount() : 0;
+    }
+
+    public long getSize() {
+        return results != null ? results.size() : 0;
+    }
+
+    public void setMaximumSize(long maximumSize) {
+        this.maximumSize = maximumSize;
+    }
+
+    public void setTimeToLive(long timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    public void setEntitySets(Set<String> entitySets) {
+        this.entitySets = entitySets;
+    }
+
+    /**
+     * A cached query result with the collections it was read from.
+     */
+    private static final class CachedResult {
+        private final long generation;
+        private final Set<String> collectionNames;
+        private final Object value;
+
+        private CachedResult(long generation, Set<String> collectionNames, Object value) {
+            this.generation = generation;
+            this.collectionNames = collectionNames;
+            this.value = value;
+        }
+    }
+}
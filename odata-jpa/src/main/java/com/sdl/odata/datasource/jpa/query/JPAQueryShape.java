@@ -0,0 +1,291 @@
+/**
+ * Copyright (c) 2016 All Rights Reserved by the SDL Group.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sdl.odata.datasource.jpa.query;
+
+import com.sdl.odata.api.processor.query.ArithmeticCriteriaValue;
+import com.sdl.odata.api.processor.query.ComparisonCriteria;
+import com.sdl.odata.api.processor.query.CompositeCriteria;
+import com.sdl.odata.api.processor.query.Criteria;
+import com.sdl.odata.api.processor.query.CountOperation;
+import com.sdl.odata.api.processor.query.CriteriaFilterOperation;
+import com.sdl.odata.api.processor.query.CriteriaValue;
+import com.sdl.odata.api.processor.query.ExpandOperation;
+import com.sdl.odata.api.processor.query.JoinOperation;
+import com.sdl.odata.api.processor.query.LimitOperation;
+import com.sdl.odata.api.processor.query.LiteralCriteriaValue;
+import com.sdl.odata.api.processor.query.OrderByOperation;
+import com.sdl.odata.api.processor.query.OrderByProperty;
+import com.sdl.odata.api.processor.query.PropertyCriteriaValue;
+import com.sdl.odata.api.processor.query.QueryOperation;
+import com.sdl.odata.api.processor.query.SelectByKeyOperation;
+import com.sdl.odata.api.processor.query.SelectOperation;
+import com.sdl.odata.api.processor.query.SelectPropertiesOperation;
+import com.sdl.odata.api.processor.query.SkipOperation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The normalized shape of a query operation tree. The shape contains the operation types, entity sets,
+ * property names and operators of the tree, the literal values are lifted out in the same order in which
+ * the {@link JPAQueryStrategyBuilder} turns them into query parameters.
+ *
+ * Operation trees with the same shape translate into the same JPQL query string.
+ */
+final class JPAQueryShape {
+
+    private final StringBuilder key = new StringBuilder();
+
+    private final List<Object> literals = new ArrayList<>();
+
+    private int limitCount;
+    private int skipCount;
+
+    private JPAQueryShape() {
+    }
+
+    /**
+     * Reads the shape of the given operation tree.
+     * @param operation The query operation
+     * @return The shape, or {@code null} if the tree contains operations that can not be normalized
+     */
+    static JPAQueryShape of(QueryOperation operation) {
+        return of(operation, false, null);
+    }
+
+    /**
+     * Reads the shape of the given operation tree when it is built with the given keyset paging settings.
+     * @param operation The query operation
+     * @param keysetPaging {@code true} if keyset paging is enabled
+     * @param skipToken The skip token of the previous page, can be {@code null}
+     * @return The shape, or {@code null} if the tree contains operations that can not be normalized
+     */
+    static JPAQueryShape of(QueryOperation operation, boolean keysetPaging, JPASkipToken skipToken) {
+        JPAQueryShape shape = new JPAQueryShape();
+        Paging paging = shape.readOperation(operation);
+        if (paging == null) {
+            return null;
+        }
+
+        if (paging.count) {
+            // A count query is built without paging, see JPAQueryStrategyBuilder
+            shape.limitCount = -1;
+            shape.skipCount = -1;
+            return shape;
+        }
+
+        if (keysetPaging) {
+            shape.readKeysetPaging(paging, skipToken);
+        }
+
+        shape.limitCount = paging.limitCount;
+        shape.skipCount = paging.skipCount;
+        return shape;
+    }
+
+    String getKey() {
+        return key.toString();
+    }
+
+    List<Object> getLiterals() {
+        return Collections.unmodifiableList(literals);
+    }
+
+    int getLimitCount() {
+        return limitCount;
+    }
+
+    int getSkipCount() {
+        return skipCount;
+    }
+
+    private Paging readOperation(QueryOperation operation) {
+        if (operation instanceof JoinOperation) {
+            return readJoin((JoinOperation) operation);
+        } else if (operation instanceof SelectOperation) {
+            SelectOperation select = (SelectOperation) operation;
+            key.append("Select(").append(select.getEntitySetName()).append(',')
+                    .append(select.isSelectDistinct()).append(')');
+            return new Paging();
+        } else if (operation instanceof CountOperation) {
+            Paging paging = readSource("Count", ((CountOperation) operation).getSource());
+            if (paging != null) {
+                paging.count = true;
+            }
+            return paging;
+        } else if (operation instanceof SelectByKeyOperation) {
+            return readSelectByKey((SelectByKeyOperation) operation);
+        } else if (operation instanceof CriteriaFilterOperation) {
+            return readCriteriaFilter((CriteriaFilterOperation) operation);
+        } else if (operation instanceof LimitOperation) {
+            LimitOperation limit = (LimitOperation) operation;
+            Paging paging = readSource("Limit", limit.getSource());
+            if (paging != null) {
+                paging.limitCount = limit.getCount();
+            }
+            return paging;
+        } else if (operation instanceof SkipOperation) {
+            SkipOperation skip = (SkipOperation) operation;
+            Paging paging = readSource("Skip", skip.getSource());
+            if (paging != null) {
+                paging.skipCount = skip.getCount();
+            }
+            return paging;
+        } else if (operation instanceof ExpandOperation) {
+            ExpandOperation expand = (ExpandOperation) operation;
+            Paging paging = readSource("Expand", expand.getSource());
+            key.append(expand.getExpandPropertiesAsJava());
+            return paging;
+        } else if (operation instanceof OrderByOperation) {
+            OrderByOperation orderBy = (OrderByOperation) operation;
+            Paging paging = readSource("OrderBy", orderBy.getSource());
+            for (OrderByProperty property : orderBy.getOrderByPropertiesAsJava()) {
+                key.append('[').append(property.getPropertyName()).append(' ')
+                        .append(property.getDirection()).append(']');
+            }
+            return paging;
+        } else if (operation instanceof SelectPropertiesOperation) {
+            SelectPropertiesOperation selectProperties = (SelectPropertiesOperation) operation;
+            Paging paging = readSource("SelectProperties", selectProperties.getSource());
+            key.append(selectProperties.getPropertyNamesAsJava());
+            return paging;
+        }
+
+        return null;
+    }
+
+    private void readKeysetPaging(Paging paging, JPASkipToken skipToken) {
+        key.append("|Keyset");
+        if (skipToken == null) {
+            return;
+        }
+
+        // The seek values are added as parameters after the parameters of the tree, see JPAQueryStrategyBuilder.
+        // Their types are part of the shape, so a plan is only reused for values of the types it was checked with.
+        List<Object> values = skipToken.getValues();
+        if (!values.isEmpty()) {
+            key.append('[');
+            for (Object value : values) {
+                key.append(value != null ? value.getClass().getName() : null).append(',');
+            }
+            key.append(']');
+            literals.addAll(values);
+            paging.skipCount = 0;
+        } else {
+            key.append("[]");
+            paging.skipCount = skipToken.getOffset();
+        }
+    }
+
+    private Paging readSource(String operationName, QueryOperation source) {
+        key.append(operationName).append('(');
+        Paging paging = readOperation(source);
+        key.append(')');
+        return paging;
+    }
+
+    private Paging readJoin(JoinOperation operation) {
+        key.append("Join(");
+        Paging left = readOperation(operation.getLeftSource());
+        key.append(',');
+        Paging right = readOperation(operation.getRightSource());
+        key.append(',').append(operation.getJoinPropertyName())
+                .append(',').append(operation.getJoinSelect())
+                .append(',').append(operation.isOuterJoin()).append(')');
+        if (left == null || right == null) {
+            return null;
+        }
+
+        // The join takes over the paging of the right source, see JPAQueryStrategyBuilder
+        left.limitCount = right.limitCount;
+        left.skipCount = right.skipCount;
+        left.count |= right.count;
+        return left;
+    }
+
+    private Paging readSelectByKey(SelectByKeyOperation operation) {
+        Paging paging = readSource("SelectByKey", operation.getSource());
+        key.append('[');
+        operation.getKeyAsJava().forEach((name, value) -> {
+            key.append(name).append(',');
+            literals.add(value);
+        });
+        key.append(']');
+        return paging;
+    }
+
+    private Paging readCriteriaFilter(CriteriaFilterOperation operation) {
+        Paging paging = readSource("Filter", operation.getSource());
+        key.append('[');
+        boolean supported = readCriteria(operation.getCriteria());
+        key.append(']');
+        return supported ? paging : null;
+    }
+
+    private boolean readCriteria(Criteria criteria) {
+        if (criteria instanceof CompositeCriteria) {
+            CompositeCriteria composite = (CompositeCriteria) criteria;
+            key.append('(');
+            boolean supported = readCriteria(composite.left());
+            key.append(' ').append(composite.operator()).append(' ');
+            supported &= readCriteria(composite.right());
+            key.append(')');
+            return supported;
+        } else if (criteria instanceof ComparisonCriteria) {
+            ComparisonCriteria comparison = (ComparisonCriteria) criteria;
+            key.append('(');
+            boolean supported = readCriteriaValue(comparison.left());
+            key.append(' ').append(comparison.operator()).append(' ');
+            supported &= readCriteriaValue(comparison.right());
+            key.append(')');
+            return supported;
+        }
+
+        return false;
+    }
+
+    private boolean readCriteriaValue(CriteriaValue value) {
+        if (value instanceof LiteralCriteriaValue) {
+            key.append('?');
+            literals.add(((LiteralCriteriaValue) value).value());
+            return true;
+        } else if (value instanceof PropertyCriteriaValue) {
+            key.append(((PropertyCriteriaValue) value).propertyName());
+            return true;
+        } else if (value instanceof ArithmeticCriteriaValue) {
+            ArithmeticCriteriaValue arithmetic = (ArithmeticCriteriaValue) value;
+            key.append('(');
+            boolean supported = readCriteriaValue(arithmetic.left());
+            key.append(' ').append(arithmetic.operator()).append(' ');
+            supported &= readCriteriaValue(arithmetic.right());
+            key.append(')');
+            return supported;
+        }
+
+        return false;
+    }
+
+    /**
+     * The paging of a (sub) tree and whether it is counted, tracked separately because a join takes over the
+     * paging of its right source.
+     */
+    private static final class Paging {
+        private int limitCount;
+        private int skipCount;
+        private boolean count;
+    }
+}
@@ -17,13 +17,22 @@ package com.sdl.odata.datasource.jpa.query;
 
 import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
+import com.google.common.primitives.Primitives;
+import com.sdl.odata.api.ODataBadRequestException;
 import com.sdl.odata.api.ODataException;
+import com.sdl.odata.api.ODataNotImplementedException;
 import com.sdl.odata.api.ODataSystemException;
 import com.sdl.odata.api.edm.model.EntityDataModel;
 import com.sdl.odata.api.edm.model.EntitySet;
 import com.sdl.odata.api.edm.model.EntityType;
+import com.sdl.odata.api.edm.model.NavigationProperty;
+import com.sdl.odata.api.edm.model.PropertyRef;
+import com.sdl.odata.api.edm.model.StructuralProperty;
+import com.sdl.odata.api.processor.query.CountOperation;
 import com.sdl.odata.api.processor.query.CriteriaFilterOperation;
+import com.sdl.odata.api.processor.query.Descending$;
 import com.sdl.odata.api.processor.query.ExpandOperation;
+import com.sdl.odata.api.processor.query.FilterOperation;
 import com.sdl.odata.api.processor.query.JoinOperation;
 import com.sdl.odata.api.processor.query.JoinSelect;
 import com.sdl.odata.api.processor.query.JoinSelectLeft$;
@@ -36,15 +45,21 @@ import com.sdl.odata.api.processor.query.SelectByKeyOperation;
 import com.sdl.odata.api.processor.query.SelectOperation;
 import com.sdl.odata.api.processor.query.SelectPropertiesOperation;
 import com.sdl.odata.api.processor.query.SkipOperation;
+import com.sdl.odata.api.processor.query.TransformOperation;
+import scala.collection.JavaConversions;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static com.sdl.odata.datasource.jpa.util.JPAMetadataUtil.getJPACollectionName;
 import static com.sdl.odata.datasource.jpa.util.JPAMetadataUtil.getJPAPropertyName;
+import static com.sdl.odata.util.edm.EntityDataModelUtil.getPropertyType;
+import static com.sdl.odata.util.edm.EntityDataModelUtil.isStructuredType;
 
 /**
  * JPA Strategy for building a JPA query from the OData query model.
@@ -57,12 +72,253 @@ public final class JPAQueryStrategyBuilder {
 
     private int paramCount = 0;
 
+    private boolean keysetPaging;
+
+    private JPASkipToken skipToken;
+
+    private boolean batchExpand;
+
+    private Set<String> joinFetchExpands = Collections.emptySet();
+
+    /**
+     * The order by paths in order by sequence, mapped to {@code true} for a descending direction.
+     */
+    private final Map<String, Boolean> orderByDirections = new LinkedHashMap<>();
+
+    /**
+     * The OData properties of the order by paths.
+     */
+    private final Map<String, StructuralProperty> orderByProperties = new HashMap<>();
+
     public JPAQueryStrategyBuilder(EntityDataModel entityDataModel) {
         this.entityDataModel = entityDataModel;
     }
 
+    /**
+     * Enables keyset paging. A paged query over a single entity set is then ordered by the order by properties
+     * followed by the key properties, and the next page is selected with a predicate on the ordering values of the
+     * last row of the previous page instead of skipping rows. A query that is ordered by a property that can be
+     * {@code null} is paged by skipping rows, because databases differ in where they order {@code null} values.
+     * @param keysetPaging {@code true} to enable keyset paging
+     * @return This builder
+     */
+    public JPAQueryStrategyBuilder setKeysetPaging(boolean keysetPaging) {
+        this.keysetPaging = keysetPaging;
+        return this;
+    }
+
+    /**
+     * Sets the continuation state of the previous page, only used when keyset paging is enabled.
+     * @param skipToken The skip token, or {@code null} for the first page
+     * @return This builder
+     */
+    public JPAQueryStrategyBuilder setSkipToken(JPASkipToken skipToken) {
+        this.skipToken = skipToken;
+        return this;
+    }
+
+    /**
+     * Enables batch loading of expanded collections. The collections are then loaded with a query per navigation
+     * property after the selected entities are loaded, instead of being fetch joined into the query. Single valued
+     * navigation properties are always fetch joined.
+     * @param batchExpand {@code true} to batch load expanded collections
+     * @return This builder
+     */
+    public JPAQueryStrategyBuilder setBatchExpand(boolean batchExpand) {
+        this.batchExpand = batchExpand;
+        return this;
+    }
+
+    /**
+     * Sets the navigation properties that are fetch joined even when batch loading is enabled.
+     * @param joinFetchExpands The navigation properties as {@code <entity set>.<navigation property>}
+     * @return This builder
+     */
+    public JPAQueryStrategyBuilder setJoinFetchExpands(Set<String> joinFetchExpands) {
+        this.joinFetchExpands = joinFetchExpands;
+        return this;
+    }
+
     public JPAQuery build(QueryOperation operation) throws ODataException {
-        return  buildFromOperation(operation).build();
+        JPAQueryBuilder builder = buildFromOperation(operation);
+        if (builder.isCount()) {
+            // Only the number of results is needed, paging does not apply to a count
+            return builder.buildCount();
+        }
+
+        if (keysetPaging) {
+            applyKeysetPaging(builder, operation);
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Builds a statement that deletes the entities selected by the given operation.
+     * @param operation The operation, which selects an entity set optionally filtered by criteria or a key
+     * @return The delete statement
+     * @throws ODataException If the operation selects anything else
+     */
+    public JPAQuery buildDelete(QueryOperation operation) throws ODataException {
+        return buildStatementFromOperation(operation).buildDelete();
+    }
+
+    /**
+     * Builds a statement that sets properties of the entities selected by the given operation.
+     * @param operation The operation, which selects an entity set optionally filtered by criteria or a key
+     * @param values The new values by the names of the OData properties
+     * @return The update statement
+     * @throws ODataException If the operation selects anything else, or there are no values
+     */
+    public JPAQuery buildUpdate(QueryOperation operation, Map<String, Object> values) throws ODataException {
+        if (values.isEmpty()) {
+            throw new ODataBadRequestException("There are no properties to update");
+        }
+
+        JPAQueryBuilder builder = buildStatementFromOperation(operation);
+        EntityType entityType = getUnderlyingEntityType(operation);
+        Map<String, Object> jpaValues = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            StructuralProperty property = entityType.getStructuralProperty(entry.getKey());
+            if (property == null || property instanceof NavigationProperty) {
+                throw new ODataBadRequestException("Property can not be updated: " + entry.getKey());
+            }
+            jpaValues.put(getJPAPropertyName(entityType, entry.getKey()), entry.getValue());
+        }
+        return builder.buildUpdate(jpaValues);
+    }
+
+    private JPAQueryBuilder buildStatementFromOperation(QueryOperation operation) throws ODataException {
+        if (!isStatementOperation(operation)) {
+            throw new ODataNotImplementedException("Unsupported operation for a set based statement: " + operation);
+        }
+        return buildFromOperation(operation);
+    }
+
+    private static boolean isStatementOperation(QueryOperation operation) {
+        if (operation instanceof SelectOperation) {
+            return true;
+        } else if (operation instanceof CriteriaFilterOperation) {
+            return isStatementOperation(((CriteriaFilterOperation) operation).getSource());
+        } else if (operation instanceof SelectByKeyOperation) {
+            return isStatementOperation(((SelectByKeyOperation) operation).getSource());
+        }
+        return false;
+    }
+
+    /**
+     * Selects only the key properties of the entities that are selected by the given operation, so that the entities
+     * are not loaded when only references to them are requested.
+     * @param entityDataModel The entity data model
+     * @param operation The query operation
+     * @return The operation that selects the key properties
+     */
+    public static QueryOperation selectKeys(EntityDataModel entityDataModel, QueryOperation operation) {
+        EntitySet entitySet = entityDataModel.getEntityContainer().getEntitySet(operation.entitySetName());
+        EntityType entityType = (EntityType) entityDataModel.getType(entitySet.getTypeName());
+        List<String> keyPropertyNames = new ArrayList<>();
+        for (PropertyRef propertyRef : entityType.getKey().getPropertyRefs()) {
+            keyPropertyNames.add(propertyRef.getPath());
+        }
+        return operation.select(JavaConversions.asScalaBuffer(keyPropertyNames));
+    }
+
+    private void applyKeysetPaging(JPAQueryBuilder builder, QueryOperation operation) throws ODataException {
+        EntityType entityType = getUnderlyingEntityType(operation);
+        if (!builder.getJoinStrings().isEmpty() || !builder.getSelectList().isEmpty()
+                || builder.getLimitCount() <= 0 || isOrderedByNullable(entityType)) {
+            // Only pages of whole entities of a single entity set, ordered by values that are never null, can be
+            // keyset paged
+            if (skipToken != null) {
+                builder.setSkipCount(skipToken.getOffset());
+            }
+            return;
+        }
+
+        String alias = builder.getFromAlias();
+
+        // Make the ordering stable by adding the key properties that are not ordered on yet
+        for (PropertyRef propertyRef : entityType.getKey().getPropertyRefs()) {
+            String path = alias + "." + getJPAPropertyName(entityType, propertyRef.getPath());
+            if (!orderByDirections.containsKey(path)) {
+                orderByDirections.put(path, false);
+                orderByProperties.put(path, entityType.getStructuralProperty(propertyRef.getPath()));
+                builder.addOrderByField(path + " ASC");
+            }
+        }
+
+        List<String> keysetProperties = new ArrayList<>();
+        for (String path : orderByDirections.keySet()) {
+            keysetProperties.add(path.substring(alias.length() + 1));
+        }
+        builder.setKeysetProperties(keysetProperties);
+
+        if (skipToken == null) {
+            return;
+        }
+
+        if (skipToken.getValues().isEmpty()) {
+            builder.setSkipCount(skipToken.getOffset());
+            return;
+        }
+
+        List<String> paths = new ArrayList<>(orderByDirections.keySet());
+        checkSkipToken(paths);
+
+        // (p1 > :last1) OR (p1 = :last1 AND p2 > :last2) OR ..., with < for the descending properties
+        List<String> seekElements = new ArrayList<>();
+        for (int i = 0; i < paths.size(); i++) {
+            List<String> seekElement = new ArrayList<>();
+            for (int j = 0; j < i; j++) {
+                seekElement.add(paths.get(j) + " = :" + alias + "last" + (j + 1));
+            }
+            seekElement.add(paths.get(i) + (orderByDirections.get(paths.get(i)) ? " < :" : " > :") +
+                    alias + "last" + (i + 1));
+            seekElements.add("(" + Joiner.on(" AND ").join(seekElement) + ")");
+        }
+
+        String seekClause = Joiner.on(" OR ").join(seekElements);
+        String whereClause = builder.getWhereClause();
+        builder.setWhereClause(Strings.isNullOrEmpty(whereClause) ? seekClause :
+                String.format("(%s) AND (%s)", whereClause, seekClause));
+
+        for (int i = 0; i < paths.size(); i++) {
+            builder.addParam(alias + "last" + (i + 1), skipToken.getValues().get(i));
+        }
+        builder.setSkipCount(0);
+    }
+
+    private boolean isOrderedByNullable(EntityType entityType) {
+        List<String> keyPropertyNames = new ArrayList<>();
+        for (PropertyRef propertyRef : entityType.getKey().getPropertyRefs()) {
+            keyPropertyNames.add(propertyRef.getPath());
+        }
+
+        for (StructuralProperty property : orderByProperties.values()) {
+            if (property.isNullable() && !property.getJavaField().getType().isPrimitive()
+                    && !keyPropertyNames.contains(property.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks that the skip token holds a value of the type of every keyset property, a token of another query or a
+     * token that was modified can not be used to seek.
+     */
+    private void checkSkipToken(List<String> paths) throws ODataBadRequestException {
+        List<Object> values = skipToken.getValues();
+        if (values.size() != paths.size()) {
+            throw new ODataBadRequestException("The skip token does not belong to this query");
+        }
+
+        for (int i = 0; i < paths.size(); i++) {
+            Class<?> type = Primitives.wrap(orderByProperties.get(paths.get(i)).getJavaField().getType());
+            if (!type.isInstance(values.get(i))) {
+                throw new ODataBadRequestException("The skip token does not belong to this query");
+            }
+        }
     }
 
     private JPAQueryBuilder buildFromOperation(QueryOperation operation) throws ODataException {
@@ -70,6 +326,8 @@ public final class JPAQueryStrategyBuilder {
             return buildFromJoin((JoinOperation) operation);
         } else if (operation instanceof SelectOperation) {
             return buildFromSelect((SelectOperation) operation);
+        } else if (operation instanceof CountOperation) {
+            return buildFromOperation(((CountOperation) operation).getSource()).setCount(true);
         } else if (operation instanceof SelectByKeyOperation) {
             return buildFromSelectByKey((SelectByKeyOperation) operation);
         } else if (operation instanceof CriteriaFilterOperation) {
@@ -89,6 +347,26 @@ public final class JPAQueryStrategyBuilder {
         throw new ODataSystemException("Unsupported query operation: " + operation);
     }
 
+    /**
+     * Checks if the given operation only asks for the number of results.
+     * @param operation The query operation
+     * @return {@code true} if the operation contains a count operation
+     */
+    public static boolean isCountOperation(QueryOperation operation) {
+        if (operation instanceof CountOperation) {
+            return true;
+        } else if (operation instanceof JoinOperation) {
+            JoinOperation joinOperation = (JoinOperation) operation;
+            return isCountOperation(joinOperation.getLeftSource()) || isCountOperation(joinOperation.getRightSource());
+        } else if (operation instanceof FilterOperation) {
+            return isCountOperation(((FilterOperation) operation).source());
+        } else if (operation instanceof TransformOperation) {
+            return isCountOperation(((TransformOperation) operation).source());
+        }
+
+        return false;
+    }
+
     private JPAQueryBuilder buildFromJoin(JoinOperation operation) throws ODataException {
         JPAQueryBuilder left = buildFromOperation(operation.getLeftSource());
         JPAQueryBuilder right = buildFromOperation(operation.getRightSource());
@@ -121,15 +399,24 @@ public final class JPAQueryStrategyBuilder {
 
         boolean distinct;
         List<String> selectList;
+        List<String> selectProperties;
+        List<String> batchExpandFields;
+        List<String> joinFetchFields;
         final JoinSelect joinSelect = operation.getJoinSelect();
         if (joinSelect == JoinSelectLeft$.MODULE$) {
             selectList = left.getSelectList();
+            selectProperties = left.getSelectProperties();
+            batchExpandFields = left.getBatchExpandFields();
+            joinFetchFields = right.getBatchExpandFields();
             if (selectList.isEmpty()) {
                 selectList = Collections.singletonList(leftAlias);
             }
             distinct = left.isDistinct();
         } else if (joinSelect == JoinSelectRight$.MODULE$) {
             selectList = right.getSelectList();
+            selectProperties = right.getSelectProperties();
+            batchExpandFields = right.getBatchExpandFields();
+            joinFetchFields = left.getBatchExpandFields();
             if (selectList.isEmpty()) {
                 selectList = Collections.singletonList(rightAlias);
             }
@@ -140,12 +427,19 @@ public final class JPAQueryStrategyBuilder {
 
         return left
                 .setSelectList(selectList)
+                .setSelectProperties(selectProperties)
                 .setDistinct(distinct)
+                .setCount(left.isCount() || right.isCount())
                 .setFromCollection(left.getFromCollection())
                 .setFromAlias(leftAlias)
                 .addJoinString(joinString)
                 .addJoinStrings(right.getJoinStrings())
+                .addCollectionNames(right.getCollectionNames())
                 .addExpandFields(right.getExpandFields())
+                .addExpandFields(joinFetchFields)
+                .setFetchJoinCollection(left.isFetchJoinCollection() || right.isFetchJoinCollection()
+                        || !joinFetchFields.isEmpty())
+                .setBatchExpandFields(batchExpandFields)
                 .setWhereClause(whereClause)
                 .addOrderByFields(right.getOrderByFields())
                 .setLimitCount(right.getLimitCount())
@@ -155,10 +449,19 @@ public final class JPAQueryStrategyBuilder {
     }
 
     private JPAQueryBuilder buildFromSelect(SelectOperation operation) {
+        String alias = "e" + (++aliasCount);
+        EntityType entityType = getUnderlyingEntityType(operation);
+        List<PropertyRef> propertyRefs = entityType.getKey().getPropertyRefs();
+
+        String collectionName = getJPACollectionName(entityDataModel, operation.getEntitySetName());
+
         return new JPAQueryBuilder()
                 .setDistinct(operation.isSelectDistinct())
-                .setFromCollection(getJPACollectionName(entityDataModel, operation.getEntitySetName()))
-                .setFromAlias("e" + (++aliasCount));
+                .setFromCollection(collectionName)
+                .setFromAlias(alias)
+                .addCollectionName(collectionName)
+                .setKeyField(propertyRefs.size() == 1 ?
+                        alias + "." + getJPAPropertyName(entityType, propertyRefs.get(0).getPath()) : null);
     }
 
     private JPAQueryBuilder buildFromSelectByKey(SelectByKeyOperation operation) throws ODataException {
@@ -203,15 +506,26 @@ public final class JPAQueryStrategyBuilder {
         EntityType entityType = getUnderlyingEntityType(operation);
 
         for (String expandProperty : operation.getExpandPropertiesAsJava()) {
-            addExpandProperty(builder, expandProperty, alias, entityType);
+            addExpandProperty(builder, expandProperty, alias, entityType, operation.entitySetName());
         }
 
         return builder;
     }
 
     private JPAQueryBuilder addExpandProperty(JPAQueryBuilder builder, String propertyName, String alias,
-                                              EntityType entityType) {
-        return builder.addExpandField(alias + "." + getJPAPropertyName(entityType, propertyName));
+                                              EntityType entityType, String entitySetName) {
+        String expandField = alias + "." + getJPAPropertyName(entityType, propertyName);
+        builder.addCollectionName(getJPACollectionName(
+                getPropertyType(entityDataModel, entityType.getStructuralProperty(propertyName)).getJavaType()));
+        if (batchExpand && entityType.getStructuralProperty(propertyName).isCollection()
+                && !joinFetchExpands.contains(entitySetName + "." + propertyName)) {
+            // Fetch joining a collection multiplies the rows, so it is loaded in batches after the query
+            return builder.addBatchExpandField(expandField);
+        }
+
+        return builder.addExpandField(expandField)
+                .setFetchJoinCollection(builder.isFetchJoinCollection()
+                        || entityType.getStructuralProperty(propertyName).isCollection());
     }
 
     private JPAQueryBuilder buildFromOrderBy(OrderByOperation operation) throws ODataException {
@@ -219,11 +533,14 @@ public final class JPAQueryStrategyBuilder {
 
         EntityType entityType = getUnderlyingEntityType(operation);
 
-        String alias = builder.getFromAlias();
+        // Order by the properties of the entities on the selected side of a join
+        String alias = getSelectedAlias(builder);
 
         for (OrderByProperty orderByProperty : operation.getOrderByPropertiesAsJava()) {
-            builder.addOrderByField(alias + "." + getJPAPropertyName(entityType, orderByProperty.getPropertyName()) +
-                    " " + orderByProperty.getDirection().toString());
+            String path = alias + "." + getJPAPropertyName(entityType, orderByProperty.getPropertyName());
+            builder.addOrderByField(path + " " + orderByProperty.getDirection().toString());
+            orderByDirections.putIfAbsent(path, orderByProperty.getDirection() == Descending$.MODULE$);
+            orderByProperties.putIfAbsent(path, entityType.getStructuralProperty(orderByProperty.getPropertyName()));
         }
 
         return builder;
@@ -234,15 +551,50 @@ public final class JPAQueryStrategyBuilder {
 
         EntityType entityType = getUnderlyingEntityType(operation);
 
-        String alias = builder.getFromAlias();
+        // The properties of the entities on the selected side of a join replace these entities in the select list
+        String alias = getSelectedAlias(builder);
+        if (builder.getSelectList().equals(Collections.singletonList(alias))) {
+            builder.setSelectList(new ArrayList<>());
+        }
 
-        for (String propertyName : operation.getPropertyNamesAsJava()) {
+        List<String> propertyNames = operation.getPropertyNamesAsJava();
+        for (String propertyName : propertyNames) {
             builder.addToSelectList(alias + "." + getJPAPropertyName(entityType, propertyName));
         }
 
+        // Primitive properties are projected together with the keys, structured values are still selected as entities
+        boolean projection = !propertyNames.isEmpty();
+        for (String propertyName : propertyNames) {
+            StructuralProperty property = entityType.getStructuralProperty(propertyName);
+            projection &= !isStructuredType(getPropertyType(entityDataModel, property));
+        }
+
+        if (projection) {
+            builder.setSelectProperties(new ArrayList<>(propertyNames));
+            for (PropertyRef propertyRef : entityType.getKey().getPropertyRefs()) {
+                if (!propertyNames.contains(propertyRef.getPath())) {
+                    builder.addToSelectList(alias + "." + getJPAPropertyName(entityType, propertyRef.getPath()));
+                    builder.addSelectProperty(propertyRef.getPath());
+                }
+            }
+        }
+
         return builder;
     }
 
+    /**
+     * The alias of the selected entities, which is the alias on the selected side when the query has a join.
+     * @param builder The query builder
+     * @return The alias of the selected entities
+     */
+    private static String getSelectedAlias(JPAQueryBuilder builder) {
+        List<String> selectList = builder.getSelectList();
+        if (selectList.size() == 1 && builder.getSelectProperties().isEmpty() && !selectList.get(0).contains(".")) {
+            return selectList.get(0);
+        }
+        return builder.getFromAlias();
+    }
+
     private EntityType getUnderlyingEntityType(QueryOperation operation) {
         String entitySetName = operation.entitySetName();
         EntitySet entitySet = entityDataModel.getEntityContainer().getEntitySet(entitySetName);
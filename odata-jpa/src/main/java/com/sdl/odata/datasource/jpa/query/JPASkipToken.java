@@ -0,0 +1,210 @@
+/**
+ * Copyright (c) 2016 All Rights Reserved by the SDL Group.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sdl.odata.datasource.jpa.query;
+
+import com.sdl.odata.api.ODataBadRequestException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The continuation state of a keyset paged query. The token holds the ordering values of the last row of the
+ * previous page and the offset of the next page, the offset is used when the ordering values can not be used to
+ * seek to the next page.
+ *
+ * The token is written as url safe base64 of a small typed binary format, only simple value types are supported so
+ * decoding a token never instantiates arbitrary classes.
+ */
+public final class JPASkipToken {
+    private static final byte VERSION = 1;
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_INTEGER = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_SHORT = 4;
+    private static final byte TYPE_BYTE = 5;
+    private static final byte TYPE_BOOLEAN = 6;
+    private static final byte TYPE_DOUBLE = 7;
+    private static final byte TYPE_FLOAT = 8;
+    private static final byte TYPE_BIG_DECIMAL = 9;
+    private static final byte TYPE_BIG_INTEGER = 10;
+    private static final byte TYPE_DATE = 11;
+    private static final byte TYPE_CHARACTER = 12;
+
+    private final int offset;
+    private final List<Object> values;
+
+    public JPASkipToken(int offset, List<Object> values) {
+        this.offset = offset;
+        this.values = Collections.unmodifiableList(new ArrayList<>(values));
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * The ordering values of the last row of the previous page, in the order of the keyset properties.
+     * @return The ordering values
+     */
+    public List<Object> getValues() {
+        return values;
+    }
+
+    /**
+     * Encodes the token.
+     * @return The url safe token
+     * @throws IllegalArgumentException If one of the values is of an unsupported type
+     */
+    public String encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            out.writeInt(offset);
+            out.writeShort(values.size());
+            for (Object value : values) {
+                writeValue(out, value);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to write skip token", e);
+        }
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+    }
+
+    /**
+     * Decodes a token created by {@link #encode()}.
+     * @param token The url safe token
+     * @return The decoded token
+     * @throws ODataBadRequestException If the token is not valid
+     */
+    public static JPASkipToken decode(String token) throws ODataBadRequestException {
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(Base64.getUrlDecoder().decode(token)))) {
+            if (in.readByte() != VERSION) {
+                throw new ODataBadRequestException("Unsupported skip token: " + token);
+            }
+
+            int offset = in.readInt();
+            int size = in.readShort();
+            if (offset < 0 || size < 0) {
+                throw new ODataBadRequestException("Invalid skip token: " + token);
+            }
+
+            List<Object> values = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                values.add(readValue(in));
+            }
+
+            if (in.read() != -1) {
+                throw new ODataBadRequestException("Invalid skip token: " + token);
+            }
+
+            return new JPASkipToken(offset, values);
+        } catch (IOException | IllegalArgumentException e) {
+            throw new ODataBadRequestException("Invalid skip token: " + token);
+        }
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(TYPE_NULL);
+        } else if (value instanceof String) {
+            out.writeByte(TYPE_STRING);
+            out.writeUTF((String) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(TYPE_INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(TYPE_LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Short) {
+            out.writeByte(TYPE_SHORT);
+            out.writeShort((Short) value);
+        } else if (value instanceof Byte) {
+            out.writeByte(TYPE_BYTE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(TYPE_BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Double) {
+            out.writeByte(TYPE_DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.writeByte(TYPE_FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof BigDecimal) {
+            out.writeByte(TYPE_BIG_DECIMAL);
+            out.writeUTF(value.toString());
+        } else if (value instanceof BigInteger) {
+            out.writeByte(TYPE_BIG_INTEGER);
+            out.writeUTF(value.toString());
+        } else if (value.getClass() == Date.class) {
+            out.writeByte(TYPE_DATE);
+            out.writeLong(((Date) value).getTime());
+        } else if (value instanceof Character) {
+            out.writeByte(TYPE_CHARACTER);
+            out.writeChar((Character) value);
+        } else {
+            throw new IllegalArgumentException("Unsupported skip token value type: " + value.getClass().getName());
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_STRING:
+                return in.readUTF();
+            case TYPE_INTEGER:
+                return in.readInt();
+            case TYPE_LONG:
+                return in.readLong();
+            case TYPE_SHORT:
+                return in.readShort();
+            case TYPE_BYTE:
+                return in.readByte();
+            case TYPE_BOOLEAN:
+                return in.readBoolean();
+            case TYPE_DOUBLE:
+                return in.readDouble();
+            case TYPE_FLOAT:
+                return in.readFloat();
+            case TYPE_BIG_DECIMAL:
+                return new BigDecimal(in.readUTF());
+            case TYPE_BIG_INTEGER:
+                return new BigInteger(in.readUTF());
+            case TYPE_DATE:
+                return new Date(in.readLong());
+            case TYPE_CHARACTER:
+                return in.readChar();
+            default:
+                throw new IOException("Unknown skip token value type: " + type);
+        }
+    }
+}
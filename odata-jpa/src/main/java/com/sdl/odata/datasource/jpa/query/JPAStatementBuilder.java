@@ -0,0 +1,219 @@
+/**
+ * Copyright (c) 2016 All Rights Reserved by the SDL Group.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sdl.odata.datasource.jpa.query;
+
+import com.sdl.odata.api.processor.datasource.ODataDataSourceException;
+import org.hibernate.annotations.Cascade;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.persistence.CascadeType;
+import javax.persistence.Column;
+import javax.persistence.JoinColumn;
+import javax.persistence.JoinColumns;
+import javax.persistence.ManyToOne;
+import javax.persistence.OneToMany;
+import javax.persistence.OneToOne;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.SingularAttribute;
+import javax.persistence.metamodel.Type;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Member;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.sdl.odata.datasource.jpa.util.ReflectionUtil.readMember;
+
+/**
+ * Builds the JPQL statements that write an entity by its key, without loading the entity into a persistence context
+ * first. The statements only apply to entities with a single basic id attribute and without a version attribute,
+ * other entities are written through the entity manager.
+ */
+public final class JPAStatementBuilder {
+    private static final Logger LOG = LoggerFactory.getLogger(JPAStatementBuilder.class);
+
+    private static final String ALIAS = "e";
+    private static final String KEY_PARAM = "key";
+    private static final String VALUE_PARAM = "value";
+
+    private JPAStatementBuilder() {
+    }
+
+    /**
+     * Builds the statement that replaces the columns of all updatable basic attributes of the given entity, including
+     * the attributes that are {@code null}. Entities with an association or embedded value that is not {@code null}
+     * are not updated with a statement, associations that are {@code null} keep their value.
+     * @param jpaEntity The JPA entity with the key and the new values
+     * @param metamodel The JPA metamodel
+     * @return The update statement, or {@code null} if the entity can not be updated with a statement
+     */
+    public static JPAQuery buildUpdate(Object jpaEntity, Metamodel metamodel) {
+        EntityType<?> entityType = getEntityType(jpaEntity, metamodel);
+        if (entityType == null) {
+            return null;
+        }
+
+        try {
+            SingularAttribute<?, ?> idAttribute = getIdAttribute(entityType);
+            Object key = idAttribute != null ? readMember(idAttribute.getJavaMember(), jpaEntity) : null;
+            if (key == null) {
+                return null;
+            }
+
+            StringBuilder builder = new StringBuilder("UPDATE ").append(entityType.getName()).append(' ')
+                    .append(ALIAS).append(" SET ");
+            Map<String, Object> params = new HashMap<>();
+            for (SingularAttribute<?, ?> attribute : entityType.getSingularAttributes()) {
+                if (attribute.isId()) {
+                    continue;
+                }
+                Object value = readMember(attribute.getJavaMember(), jpaEntity);
+                if (attribute.getPersistentAttributeType() != Attribute.PersistentAttributeType.BASIC) {
+                    if (value != null) {
+                        // Associations and embedded values are merged by the entity manager
+                        return null;
+                    }
+                    continue;
+                }
+                Column column = getAnnotation(attribute, Column.class);
+                if (column != null && !column.updatable()) {
+                    continue;
+                }
+
+                String param = VALUE_PARAM + params.size();
+                if (!params.isEmpty()) {
+                    builder.append(", ");
+                }
+                builder.append(ALIAS).append('.').append(attribute.getName()).append(" = :").append(param);
+                params.put(param, value);
+            }
+            if (params.isEmpty()) {
+                return null;
+            }
+
+            builder.append(" WHERE ").append(ALIAS).append('.').append(idAttribute.getName())
+                    .append(" = :").append(KEY_PARAM);
+            params.put(KEY_PARAM, key);
+            return new JPAQuery(builder.toString(), params);
+        } catch (ODataDataSourceException e) {
+            LOG.debug("Unable to build update statement, falling back to the entity manager: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Builds the statement that deletes the given entity by its key. Entities whose removal cascades, or that own
+     * rows in a join or collection table, are not deleted with a statement.
+     * @param jpaEntity The JPA entity with the key
+     * @param metamodel The JPA metamodel
+     * @return The delete statement, or {@code null} if the entity can not be deleted with a statement
+     */
+    public static JPAQuery buildDelete(Object jpaEntity, Metamodel metamodel) {
+        EntityType<?> entityType = getEntityType(jpaEntity, metamodel);
+        if (entityType == null || hasRemoveRules(entityType)) {
+            return null;
+        }
+
+        try {
+            SingularAttribute<?, ?> idAttribute = getIdAttribute(entityType);
+            Object key = idAttribute != null ? readMember(idAttribute.getJavaMember(), jpaEntity) : null;
+            if (key == null) {
+                return null;
+            }
+
+            String queryString = "DELETE FROM " + entityType.getName() + " " + ALIAS + " WHERE " + ALIAS + "."
+                    + idAttribute.getName() + " = :" + KEY_PARAM;
+            Map<String, Object> params = new HashMap<>();
+            params.put(KEY_PARAM, key);
+            return new JPAQuery(queryString, params);
+        } catch (ODataDataSourceException e) {
+            LOG.debug("Unable to build delete statement, falling back to the entity manager: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private static boolean hasRemoveRules(EntityType<?> entityType) {
+        for (Attribute<?, ?> attribute : entityType.getAttributes()) {
+            switch (attribute.getPersistentAttributeType()) {
+                case ELEMENT_COLLECTION:
+                case MANY_TO_MANY:
+                    return true;
+                case ONE_TO_MANY:
+                    OneToMany oneToMany = getAnnotation(attribute, OneToMany.class);
+                    if (oneToMany != null && (cascadesRemove(oneToMany.cascade()) || oneToMany.orphanRemoval())) {
+                        return true;
+                    }
+                    if (oneToMany != null && oneToMany.mappedBy().isEmpty()
+                            && getAnnotation(attribute, JoinColumn.class) == null
+                            && getAnnotation(attribute, JoinColumns.class) == null) {
+                        // A unidirectional one to many without a join column is stored in a join table
+                        return true;
+                    }
+                    break;
+                case ONE_TO_ONE:
+                    OneToOne oneToOne = getAnnotation(attribute, OneToOne.class);
+                    if (oneToOne != null && (cascadesRemove(oneToOne.cascade()) || oneToOne.orphanRemoval())) {
+                        return true;
+                    }
+                    break;
+                case MANY_TO_ONE:
+                    ManyToOne manyToOne = getAnnotation(attribute, ManyToOne.class);
+                    if (manyToOne != null && cascadesRemove(manyToOne.cascade())) {
+                        return true;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            if (getAnnotation(attribute, Cascade.class) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean cascadesRemove(CascadeType[] cascadeTypes) {
+        for (CascadeType cascadeType : cascadeTypes) {
+            if (cascadeType == CascadeType.ALL || cascadeType == CascadeType.REMOVE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static <A extends Annotation> A getAnnotation(Attribute<?, ?> attribute, Class<A> annotationType) {
+        Member member = attribute.getJavaMember();
+        return member instanceof AnnotatedElement ? ((AnnotatedElement) member).getAnnotation(annotationType) : null;
+    }
+
+    private static SingularAttribute<?, ?> getIdAttribute(EntityType<?> entityType) {
+        SingularAttribute<?, ?> idAttribute = entityType.getId(entityType.getIdType().getJavaType());
+        return idAttribute.getType().getPersistenceType() == Type.PersistenceType.BASIC ? idAttribute : null;
+    }
+
+    private static EntityType<?> getEntityType(Object jpaEntity, Metamodel metamodel) {
+        EntityType<?> entityType;
+        try {
+            entityType = metamodel.entity(jpaEntity.getClass());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        return entityType.hasSingleIdAttribute() && !entityType.hasVersionAttribute() ? entityType : null;
+    }
+}
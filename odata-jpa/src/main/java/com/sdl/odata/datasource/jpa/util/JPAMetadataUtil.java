@@ -27,6 +27,8 @@ import com.sdl.odata.datasource.jpa.ODataJPAProperty;
 
 import javax.persistence.Entity;
 import java.lang.reflect.Field;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -72,6 +74,29 @@ public final class JPAMetadataUtil {
             throw new ODataSystemException("Entity does not have an @Entity annotation: " + jpaEntityType.getName());
         }
 
+        return getEntityName(jpaEntityType, jpaEntityAnno);
+    }
+
+    /**
+     * Get the names of the JPA collections that contain the entities of a given JPA type, which are the collection of
+     * the type itself and the collections of its entity super types.
+     * @param jpaEntityType The JPA entity type
+     * @return The names of the collections, empty if the type is not a JPA entity
+     */
+    public static Set<String> getJPACollectionNames(Class<?> jpaEntityType) {
+        checkNotNull(jpaEntityType);
+        Set<String> jpaCollectionNames = new LinkedHashSet<>();
+        for (Class<?> type = jpaEntityType; type != null; type = type.getSuperclass()) {
+            Entity jpaEntityAnno = type.getAnnotation(Entity.class);
+            if (jpaEntityAnno != null) {
+                jpaCollectionNames.add(getEntityName(type, jpaEntityAnno));
+            }
+        }
+
+        return jpaCollectionNames;
+    }
+
+    private static String getEntityName(Class<?> jpaEntityType, Entity jpaEntityAnno) {
         String jpaCollectionName = jpaEntityAnno.name();
         if (Strings.isNullOrEmpty(jpaCollectionName)) {
             jpaCollectionName = jpaEntityType.getSimpleName();
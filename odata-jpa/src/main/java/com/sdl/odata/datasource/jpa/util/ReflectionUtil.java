@@ -18,6 +18,9 @@ package com.sdl.odata.datasource.jpa.util;
 import com.sdl.odata.api.processor.datasource.ODataDataSourceException;
 
 import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
 
 /**
  * Small utility class that contains reflection shortcuts.
@@ -101,4 +104,25 @@ public final class ReflectionUtil {
             throw new ODataDataSourceException("Cannot write field: " + field.getName(), e);
         }
     }
+
+    /**
+     * Reads the value of a persistent attribute, which is either a field or a getter method.
+     * @param member The field or the getter method of the attribute
+     * @param object The object instance that contains the attribute
+     * @return The raw object for the attribute
+     * @throws ODataDataSourceException If unable to read the attribute
+     */
+    public static Object readMember(Member member, Object object) throws ODataDataSourceException {
+        if (member instanceof Field) {
+            return readField((Field) member, object);
+        }
+
+        Method method = (Method) member;
+        method.setAccessible(true);
+        try {
+            return method.invoke(object);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new ODataDataSourceException("Cannot read property: " + method.getName(), e);
+        }
+    }
 }